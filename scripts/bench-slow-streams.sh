@@ -0,0 +1,46 @@
+#!/usr/bin/env bash
+# Compares thread modes under many slow concurrent video range streams.
+#
+# Start the service once with VIRTUAL_THREADS_ENABLED=false and once with
+# VIRTUAL_THREADS_ENABLED=true, run this script against each, and compare
+# completed streams, failures and time to first byte.
+#
+# Usage: scripts/bench-slow-streams.sh <objectName> [concurrency] [limit-rate] [range-bytes]
+#   BASE_URL  service URL (default http://localhost:8081)
+set -euo pipefail
+
+OBJECT_NAME="${1:?objectName of an uploaded video is required}"
+CONCURRENCY="${2:-400}"
+LIMIT_RATE="${3:-64k}"
+RANGE_BYTES="${4:-1048576}"
+BASE_URL="${BASE_URL:-http://localhost:8081}"
+URL="${BASE_URL}/api/files/videos/${OBJECT_NAME}/stream"
+
+RESULTS="$(mktemp)"
+trap 'rm -f "$RESULTS"' EXIT
+
+echo "Streaming ${CONCURRENCY} x ${RANGE_BYTES} bytes at ${LIMIT_RATE}/s each from ${URL}"
+START=$(date +%s.%N)
+
+seq 1 "$CONCURRENCY" | xargs -P "$CONCURRENCY" -I{} \
+    curl -s -o /dev/null --limit-rate "$LIMIT_RATE" --max-time 600 \
+         -H "Range: bytes=0-$((RANGE_BYTES - 1))" \
+         -w "%{http_code} %{time_starttransfer} %{time_total}\n" \
+         "$URL" >> "$RESULTS" || true
+
+END=$(date +%s.%N)
+
+WALL=$(echo "$END - $START" | bc)
+OK=$(awk '$1 == 206' "$RESULTS" | wc -l)
+FAILED=$(awk '$1 != 206' "$RESULTS" | wc -l)
+printf "completed: %d  failed: %d  wall: %.1fs\n" "$OK" "$FAILED" "$WALL"
+
+if [ "$OK" -gt 0 ]; then
+    awk '$1 == 206 { print $2 }' "$RESULTS" | sort -n | awk '
+        { v[NR] = $1 }
+        END {
+            p50 = int(NR * 0.50); if (p50 < 1) p50 = 1
+            p99 = int(NR * 0.99); if (p99 < 1) p99 = 1
+            printf "ttfb p50: %.3fs  p99: %.3fs\n", v[p50], v[p99]
+        }'
+fi
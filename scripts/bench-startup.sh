@@ -0,0 +1,90 @@
+#!/usr/bin/env bash
+# Measures time-to-ready: from process start until the readiness probe reports UP.
+#
+# Build both variants first (mvn package, and mvn package -Pfast-start), then run e.g.
+#   scripts/bench-startup.sh default
+#   scripts/bench-startup.sh fast-start
+# against the same Postgres/Redis/RabbitMQ/MinIO/Keycloak and compare the medians.
+#
+# Usage: scripts/bench-startup.sh <default|fast-start> [runs]
+#   BASE_URL  service URL (default http://localhost:8081)
+#   TIMEOUT   seconds to wait for readiness per run (default 180)
+set -euo pipefail
+
+MODE="${1:?mode is required: default or fast-start}"
+RUNS="${2:-5}"
+BASE_URL="${BASE_URL:-http://localhost:8081}"
+TIMEOUT="${TIMEOUT:-180}"
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+
+case "$MODE" in
+    default)
+        WORK_DIR="$PROJECT_DIR/target"
+        JAR="$(ls "$WORK_DIR"/file-service-*.jar | head -n 1)"
+        JAVA_ARGS=(-jar "$JAR")
+        # The default profile does not expose the probe groups
+        READY_URL="${BASE_URL}/actuator/health"
+        ;;
+    fast-start)
+        WORK_DIR="$PROJECT_DIR/target/fast-start"
+        JAVA_ARGS=(-XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true
+                   -Dspring.profiles.active=fast-start -jar file-service.jar)
+        READY_URL="${BASE_URL}/actuator/health/readiness"
+        ;;
+    *)
+        echo "unknown mode: $MODE" >&2
+        exit 1
+        ;;
+esac
+
+RESULTS="$(mktemp)"
+LOG="$(mktemp)"
+PID=""
+cleanup() {
+    if [ -n "$PID" ]; then
+        kill "$PID" 2>/dev/null || true
+        wait "$PID" 2>/dev/null || true
+    fi
+    rm -f "$RESULTS" "$LOG"
+}
+trap cleanup EXIT
+
+echo "Measuring ${RUNS} starts in ${MODE} mode, ready when ${READY_URL} is UP"
+for run in $(seq 1 "$RUNS"); do
+    START=$(date +%s.%N)
+    (cd "$WORK_DIR" && exec java "${JAVA_ARGS[@]}") > "$LOG" 2>&1 &
+    PID=$!
+
+    READY=""
+    while [ "$(echo "$(date +%s.%N) - $START < $TIMEOUT" | bc)" -eq 1 ]; do
+        if ! kill -0 "$PID" 2>/dev/null; then
+            echo "run ${run}: process exited, last log lines:" >&2
+            tail -n 20 "$LOG" >&2
+            exit 1
+        fi
+        if curl -sf "$READY_URL" 2>/dev/null | grep -q '"status":"UP"'; then
+            READY=$(date +%s.%N)
+            break
+        fi
+        sleep 0.1
+    done
+
+    kill "$PID" 2>/dev/null || true
+    wait "$PID" 2>/dev/null || true
+    PID=""
+
+    if [ -z "$READY" ]; then
+        echo "run ${run}: not ready after ${TIMEOUT}s" >&2
+        exit 1
+    fi
+    ELAPSED=$(echo "$READY - $START" | bc)
+    printf "run %d: %.2fs\n" "$run" "$ELAPSED"
+    echo "$ELAPSED" >> "$RESULTS"
+done
+
+sort -n "$RESULTS" | awk '
+    { v[NR] = $1; sum += $1 }
+    END {
+        printf "time-to-ready min: %.2fs  median: %.2fs  max: %.2fs  mean: %.2fs\n",
+            v[1], v[int((NR + 1) / 2)], v[NR], sum / NR
+    }'
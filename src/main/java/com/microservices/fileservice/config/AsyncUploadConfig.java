@@ -0,0 +1,45 @@
+package com.microservices.fileservice.config;
+
+import com.microservices.fileservice.util.ThreadFactories;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+
+@Configuration
+public class AsyncUploadConfig {
+
+    @Value("${upload.async.core-pool-size:4}")
+    private int corePoolSize;
+
+    @Value("${upload.async.max-pool-size:8}")
+    private int maxPoolSize;
+
+    @Value("${upload.async.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean
+    public ThreadPoolTaskExecutor uploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadFactory(ThreadFactories.named("upload", virtualThreads));
+        // When the queue is full the request thread finishes the upload itself, like the synchronous
+        // path. CallerRunsPolicy would silently drop the task once the pool is shut down.
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("Upload executor is shut down");
+            }
+            task.run();
+        });
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+}
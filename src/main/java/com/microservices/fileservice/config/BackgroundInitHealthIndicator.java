@@ -0,0 +1,133 @@
+package com.microservices.fileservice.config;
+
+import com.microservices.fileservice.service.MinioService;
+import com.microservices.fileservice.util.ThreadFactories;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * With {@code startup.background-init} the MinIO bucket check, the RabbitMQ queue declarations
+ * and the first JWKS fetch from Keycloak run after the context has started instead of blocking
+ * it. Until they have finished this indicator reports OUT_OF_SERVICE, which keeps the readiness
+ * probe down. Tasks are retried; once {@code startup.init.timeout} has passed the instance
+ * reports ready anyway and the failed tasks fall back to happening on first use, as they would
+ * without this mode.
+ */
+@Component
+@ConditionalOnProperty(name = "startup.background-init", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class BackgroundInitHealthIndicator implements HealthIndicator {
+
+    // Well-formed token signed by a key Keycloak does not have: decoding it makes the decoder
+    // fetch and cache the JWK set, then fail signature verification
+    private static final String WARMUP_TOKEN = "eyJhbGciOiJSUzI1NiIsImtpZCI6InN0YXJ0dXAtd2FybXVwIn0.e30.AA";
+
+    private static final String PENDING = "pending";
+    private static final String DONE = "done";
+
+    private final MinioService minioService;
+    private final RabbitAdmin rabbitAdmin;
+    private final JwtDecoder jwtDecoder;
+
+    @Value("${startup.init.timeout:PT2M}")
+    private Duration timeout;
+
+    @Value("${startup.init.retry-interval:PT2S}")
+    private Duration retryInterval;
+
+    private final Map<String, String> tasks = new ConcurrentHashMap<>();
+    private volatile long deadlineNanos;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService executor;
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void start() {
+        deadlineNanos = System.nanoTime() + timeout.toNanos();
+        executor = Executors.newFixedThreadPool(3, ThreadFactories.named("background-init", virtualThreads));
+        submit("minio", () -> {
+            if (!minioService.initializeBucket()) {
+                throw new IllegalStateException("Bucket initialization failed");
+            }
+        });
+        submit("rabbitmq", rabbitAdmin::initialize);
+        submit("jwks", this::warmUpJwks);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Health health() {
+        if (deadlineNanos == 0) {
+            return Health.outOfService().build();
+        }
+        boolean done = tasks.values().stream().allMatch(DONE::equals);
+        if (done || System.nanoTime() - deadlineNanos > 0) {
+            return Health.up().withDetails(tasks).build();
+        }
+        return Health.outOfService().withDetails(tasks).build();
+    }
+
+    private void submit(String name, Runnable task) {
+        tasks.put(name, PENDING);
+        executor.execute(() -> {
+            long startNanos = System.nanoTime();
+            while (true) {
+                try {
+                    task.run();
+                    tasks.put(name, DONE);
+                    log.info("Background init of {} finished in {} ms", name,
+                            Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+                    return;
+                } catch (Exception e) {
+                    if (System.nanoTime() - deadlineNanos > 0) {
+                        tasks.put(name, "failed: " + e.getMessage());
+                        log.warn("Background init of {} gave up, continuing without it", name, e);
+                        return;
+                    }
+                    tasks.put(name, "retrying: " + e.getMessage());
+                    log.debug("Background init of {} failed, retrying", name, e);
+                }
+                try {
+                    Thread.sleep(retryInterval.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        });
+    }
+
+    private void warmUpJwks() {
+        try {
+            jwtDecoder.decode(WARMUP_TOKEN);
+        } catch (BadJwtException e) {
+            // Expected: the key set was fetched and the token rejected
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.microservices.fileservice.config;
+
+import com.microservices.fileservice.util.ThreadFactories;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.MinioAsyncClient;
+import io.minio.MinioClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the MinIO clients. All of them share one OkHttp connection pool and dispatcher sized
+ * from {@code minio.http.*}. An endpoint may name several nodes of one deployment separated by
+ * '|' (e.g. "http://minio-1:9000|http://minio-2:9000"); requests are then balanced over them
+ * by a {@link MinioEndpointPool}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MinioClientFactory {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${minio.access-key}")
+    private String accessKey;
+
+    @Value("${minio.secret-key}")
+    private String secretKey;
+
+    @Value("${minio.http.max-idle-connections:64}")
+    private int maxIdleConnections;
+
+    @Value("${minio.http.keep-alive:PT5M}")
+    private Duration keepAlive;
+
+    @Value("${minio.http.max-requests:256}")
+    private int maxRequests;
+
+    @Value("${minio.http.max-requests-per-host:64}")
+    private int maxRequestsPerHost;
+
+    @Value("${minio.http.connect-timeout:PT5S}")
+    private Duration connectTimeout;
+
+    @Value("${minio.http.read-timeout:PT5M}")
+    private Duration readTimeout;
+
+    @Value("${minio.http.write-timeout:PT5M}")
+    private Duration writeTimeout;
+
+    @Value("${minio.http.http2:false}")
+    private boolean http2;
+
+    @Value("${minio.health.interval:PT5S}")
+    private Duration healthInterval;
+
+    @Value("${minio.health.timeout:PT2S}")
+    private Duration healthTimeout;
+
+    @Value("${minio.health.unhealthy-threshold:3}")
+    private int unhealthyThreshold;
+
+    private OkHttpClient httpClient;
+    private OkHttpClient probeClient;
+    private final Map<String, MinioEndpointPool> pools = new ConcurrentHashMap<>();
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ScheduledExecutorService healthChecker;
+
+    @PostConstruct
+    void init() {
+        ConnectionPool connectionPool = new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .writeTimeout(writeTimeout)
+                // Retries are done across nodes by the endpoint pool
+                .retryOnConnectionFailure(false);
+        if (http2) {
+            // Negotiated via ALPN, so only https endpoints actually switch to HTTP/2
+            builder.protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        }
+        httpClient = builder.build();
+        probeClient = httpClient.newBuilder()
+                .callTimeout(healthTimeout)
+                .build();
+
+        Gauge.builder("minio.client.connections", connectionPool, ConnectionPool::connectionCount)
+                .tag("state", "total")
+                .register(meterRegistry);
+        Gauge.builder("minio.client.connections", connectionPool, ConnectionPool::idleConnectionCount)
+                .tag("state", "idle")
+                .register(meterRegistry);
+
+        healthChecker = Executors.newSingleThreadScheduledExecutor(ThreadFactories.named("minio-health", virtualThreads));
+        healthChecker.scheduleWithFixedDelay(this::checkHealth,
+                healthInterval.toMillis(), healthInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        healthChecker.shutdownNow();
+    }
+
+    public MinioClient createClient(String endpoint) {
+        return MinioClient.builder()
+                .endpoint(nodes(endpoint).get(0))
+                .credentials(accessKey, secretKey)
+                .httpClient(httpClientFor(endpoint))
+                .build();
+    }
+
+    public MinioAsyncClient createAsyncClient(String endpoint) {
+        return MinioAsyncClient.builder()
+                .endpoint(nodes(endpoint).get(0))
+                .credentials(accessKey, secretKey)
+                .httpClient(httpClientFor(endpoint))
+                .build();
+    }
+
+    private OkHttpClient httpClientFor(String endpoint) {
+        MinioEndpointPool pool = pools.computeIfAbsent(endpoint,
+                key -> new MinioEndpointPool(nodes(key), unhealthyThreshold, meterRegistry));
+        return httpClient.newBuilder()
+                .addInterceptor(pool)
+                .build();
+    }
+
+    private void checkHealth() {
+        try {
+            pools.values().forEach(pool -> pool.checkHealth(probeClient));
+        } catch (Exception e) {
+            log.warn("MinIO health check failed", e);
+        }
+    }
+
+    private static List<String> nodes(String endpoint) {
+        return Arrays.stream(endpoint.split("\\|"))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .toList();
+    }
+}
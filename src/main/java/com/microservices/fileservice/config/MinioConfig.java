@@ -1,5 +1,6 @@
 package com.microservices.fileservice.config;
 
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,13 +24,12 @@ public class MinioConfig {
     private String bucketName;
 
     @Bean
-    public MinioClient minioClient() {
-        return MinioClient.builder()
-                .endpoint(endpoint)
-                .credentials(accessKey, secretKey)
-                .build();
+    public MinioClient minioClient(MinioClientFactory minioClientFactory) {
+        return minioClientFactory.createClient(endpoint);
     }
-}
-
-
 
+    @Bean
+    public MinioAsyncClient minioAsyncClient(MinioClientFactory minioClientFactory) {
+        return minioClientFactory.createAsyncClient(endpoint);
+    }
+}
@@ -0,0 +1,189 @@
+package com.microservices.fileservice.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the requests for one logical MinIO endpoint over the nodes of that deployment.
+ * Installed as an OkHttp application interceptor: every request goes to the healthy node with
+ * the fewest requests in flight, and GET/HEAD requests that fail with an I/O error or a
+ * 502/503/504 are retried on another node. The signed Host header is left as it is, so any
+ * node of the deployment accepts the request.
+ *
+ * <p>A node is ejected after a run of consecutive failures, from live traffic or from the
+ * periodic {@code /minio/health/live} probe, and comes back on its next successful probe.
+ */
+@Slf4j
+class MinioEndpointPool implements Interceptor {
+
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD");
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(502, 503, 504);
+    private static final String HEALTH_PATH = "minio/health/live";
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final int unhealthyThreshold;
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    MinioEndpointPool(List<String> nodeUrls, int unhealthyThreshold, MeterRegistry meterRegistry) {
+        this.unhealthyThreshold = unhealthyThreshold;
+        this.meterRegistry = meterRegistry;
+        for (String nodeUrl : nodeUrls) {
+            nodes.add(new Node(HttpUrl.get(nodeUrl)));
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        int attempts = IDEMPOTENT_METHODS.contains(request.method()) ? nodes.size() : 1;
+        List<Node> tried = new ArrayList<>(attempts);
+        IOException lastError = null;
+
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            Node node = select(tried);
+            tried.add(node);
+            if (attempt > 0) {
+                node.retries.increment();
+            }
+            Request routed = request.newBuilder().url(node.route(request.url())).build();
+            node.inFlight.incrementAndGet();
+            long startNanos = System.nanoTime();
+            try {
+                Response response = chain.proceed(routed);
+                boolean failed = RETRYABLE_STATUSES.contains(response.code());
+                node.record(request.method(), failed, System.nanoTime() - startNanos);
+                if (!failed) {
+                    node.markSuccess();
+                    return response;
+                }
+                node.markFailure();
+                if (attempt + 1 == attempts) {
+                    return response;
+                }
+                response.close();
+            } catch (IOException e) {
+                node.record(request.method(), true, System.nanoTime() - startNanos);
+                node.markFailure();
+                if (chain.call().isCanceled()) {
+                    throw e;
+                }
+                lastError = e;
+            } finally {
+                node.inFlight.decrementAndGet();
+            }
+        }
+        throw lastError;
+    }
+
+    void checkHealth(OkHttpClient probeClient) {
+        for (Node node : nodes) {
+            Request probe = new Request.Builder()
+                    .url(node.baseUrl.newBuilder().addPathSegments(HEALTH_PATH).build())
+                    .get()
+                    .build();
+            try (Response response = probeClient.newCall(probe).execute()) {
+                if (response.code() == 200) {
+                    node.markSuccess();
+                } else {
+                    node.markFailure();
+                }
+            } catch (IOException e) {
+                node.markFailure();
+            }
+        }
+    }
+
+    /**
+     * Least requests in flight among the healthy nodes not tried yet; unhealthy nodes are only
+     * used when nothing else is left. Ties rotate so idle nodes share the load.
+     */
+    private Node select(List<Node> tried) {
+        int start = Math.floorMod(nextStart.getAndIncrement(), nodes.size());
+        Node best = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((start + i) % nodes.size());
+            if (tried.contains(node)) {
+                continue;
+            }
+            if (best == null
+                    || (node.healthy && !best.healthy)
+                    || (node.healthy == best.healthy && node.inFlight.get() < best.inFlight.get())) {
+                best = node;
+            }
+        }
+        return best != null ? best : nodes.get(start);
+    }
+
+    private final class Node {
+
+        private final HttpUrl baseUrl;
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final Counter retries;
+        private volatile boolean healthy = true;
+
+        Node(HttpUrl baseUrl) {
+            this.baseUrl = baseUrl;
+            this.name = baseUrl.host() + ":" + baseUrl.port();
+            this.retries = Counter.builder("minio.client.retries")
+                    .tag("endpoint", name)
+                    .description("Reads retried on this node after failing on another")
+                    .register(meterRegistry);
+            Gauge.builder("minio.client.in.flight", inFlight, AtomicInteger::get)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            Gauge.builder("minio.client.endpoint.healthy", this, node -> node.healthy ? 1 : 0)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+        }
+
+        HttpUrl route(HttpUrl url) {
+            return url.newBuilder()
+                    .scheme(baseUrl.scheme())
+                    .host(baseUrl.host())
+                    .port(baseUrl.port())
+                    .build();
+        }
+
+        void record(String method, boolean failed, long nanos) {
+            Timer.builder("minio.client.requests")
+                    .tag("endpoint", name)
+                    .tag("method", method)
+                    .tag("outcome", failed ? "error" : "success")
+                    .register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        void markSuccess() {
+            consecutiveFailures.set(0);
+            if (!healthy) {
+                healthy = true;
+                log.info("MinIO node {} is healthy again", name);
+            }
+        }
+
+        void markFailure() {
+            if (consecutiveFailures.incrementAndGet() >= unhealthyThreshold && healthy) {
+                healthy = false;
+                log.warn("MinIO node {} ejected after {} consecutive failures", name, unhealthyThreshold);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.microservices.fileservice.config;
 import com.microservices.fileservice.service.MinioService;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -11,9 +12,15 @@ public class MinioInitializer {
 
     private final MinioService minioService;
 
+    // In background-init mode BackgroundInitHealthIndicator does this after startup
+    @Value("${startup.background-init:false}")
+    private boolean backgroundInit;
+
     @PostConstruct
     public void init() {
-        minioService.initializeBucket();
+        if (!backgroundInit) {
+            minioService.initializeBucket();
+        }
     }
 }
 
@@ -1,9 +1,15 @@
 package com.microservices.fileservice.config;
 
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,6 +18,7 @@ public class RabbitMQConfig {
 
     public static final String FILE_PROCESSING_QUEUE = "file.processing.queue";
     public static final String NOTIFICATION_QUEUE = "notification.queue";
+    public static final String SEARCH_INDEX_EXCHANGE = "file.search-index.exchange";
 
     @Bean
     public Queue fileProcessingQueue() {
@@ -23,6 +30,37 @@ public class RabbitMQConfig {
         return new Queue(NOTIFICATION_QUEUE, true);
     }
 
+    @Bean
+    public FanoutExchange searchIndexExchange() {
+        return new FanoutExchange(SEARCH_INDEX_EXCHANGE, true, false);
+    }
+
+    /**
+     * One queue per instance, removed when it disconnects, so every replica sees every index change.
+     */
+    @Bean
+    public Queue searchIndexQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding searchIndexBinding(FanoutExchange searchIndexExchange, Queue searchIndexQueue) {
+        return BindingBuilder.bind(searchIndexQueue).to(searchIndexExchange);
+    }
+
+    /**
+     * With {@code startup.background-init} the declarations are made once by
+     * {@link BackgroundInitHealthIndicator} instead of on every new connection. Listener
+     * containers still redeclare their queues if they are missing after a reconnect.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "startup.background-init", havingValue = "true")
+    public RabbitAdmin rabbitAdmin(ConnectionFactory connectionFactory) {
+        RabbitAdmin admin = new RabbitAdmin(connectionFactory);
+        admin.setAutoStartup(false);
+        return admin;
+    }
+
     @Bean
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
@@ -0,0 +1,76 @@
+package com.microservices.fileservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microservices.fileservice.service.UploadAdmissionService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Runs before the multipart body is parsed, so rejected uploads are turned away
+ * without their bytes ever being buffered.
+ */
+@Component
+@RequiredArgsConstructor
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private static final String UPLOAD_PATH_PREFIX = "/api/files/upload";
+
+    private final UploadAdmissionService uploadAdmissionService;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod())
+                || !request.getRequestURI().startsWith(UPLOAD_PATH_PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        Optional<UploadAdmissionService.Permit> permit;
+        try {
+            permit = uploadAdmissionService.tryAdmit(request.getContentLengthLong());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit = Optional.empty();
+        }
+
+        if (permit.isEmpty()) {
+            reject(response);
+            return;
+        }
+
+        // Closing is a no-op once an async upload has detached the reservation
+        try (UploadAdmissionService.Permit admitted = permit.get()) {
+            request.setAttribute(UploadAdmissionService.PERMIT_ATTRIBUTE, admitted);
+            filterChain.doFilter(request, response);
+        }
+    }
+
+    private void reject(HttpServletResponse response) throws IOException {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("error", "Upload capacity exceeded");
+        errorResponse.put("message", "The service is handling too many uploads right now. Please retry later.");
+        errorResponse.put("status", HttpStatus.SERVICE_UNAVAILABLE.value());
+
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER,
+                String.valueOf(uploadAdmissionService.getRetryAfter().toSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), errorResponse);
+    }
+}
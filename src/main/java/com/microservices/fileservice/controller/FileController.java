@@ -1,13 +1,22 @@
 package com.microservices.fileservice.controller;
 
+import com.microservices.fileservice.exception.StorageQuotaExceededException;
 import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.model.FileStatusView;
+import com.microservices.fileservice.service.BandwidthScheduler;
+import com.microservices.fileservice.service.FileSearchService;
 import com.microservices.fileservice.service.FileService;
 import com.microservices.fileservice.service.MinioService;
+import com.microservices.fileservice.service.StorageUsageService;
+import com.microservices.fileservice.service.UploadAdmissionService;
+import com.microservices.fileservice.service.VideoPrefetchService;
+import com.microservices.fileservice.util.ByteRange;
 import com.microservices.fileservice.util.RoleUtil;
+import com.microservices.fileservice.util.StreamingUtil;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -18,8 +27,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
 
@@ -31,6 +39,10 @@ public class FileController {
 
     private final FileService fileService;
     private final MinioService minioService;
+    private final BandwidthScheduler bandwidthScheduler;
+    private final StorageUsageService storageUsageService;
+    private final FileSearchService fileSearchService;
+    private final VideoPrefetchService videoPrefetchService;
 
     @PostMapping("/upload")
     public ResponseEntity<FileEntity> uploadFile(
@@ -43,6 +55,8 @@ public class FileController {
             String userId = jwt.getSubject();
             FileEntity fileEntity = fileService.uploadFile(file, userId);
             return ResponseEntity.status(HttpStatus.CREATED).body(fileEntity);
+        } catch (StorageQuotaExceededException e) {
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -60,12 +74,55 @@ public class FileController {
             String userId = jwt.getSubject();
             FileEntity fileEntity = fileService.uploadFileToLesson(file, userId, lessonId);
             return ResponseEntity.status(HttpStatus.CREATED).body(fileEntity);
+        } catch (StorageQuotaExceededException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error uploading file to lesson: {}", lessonId, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    @PostMapping("/upload-async")
+    public ResponseEntity<FileEntity> uploadFileAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "lessonId", required = false) Long lessonId,
+            @AuthenticationPrincipal Jwt jwt,
+            HttpServletRequest request) {
+        if (!RoleUtil.canUpload(jwt)) {
+            throw new AccessDeniedException("Only ADMIN and TEACHER roles can upload files");
+        }
+        try {
+            String userId = jwt.getSubject();
+            UploadAdmissionService.Permit permit =
+                    (UploadAdmissionService.Permit) request.getAttribute(UploadAdmissionService.PERMIT_ATTRIBUTE);
+            FileEntity fileEntity = fileService.uploadFileAsync(file, userId, lessonId, permit);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/files/" + fileEntity.getId() + "/status"))
+                    .body(fileEntity);
+        } catch (StorageQuotaExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error accepting async upload", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/{id}/status")
+    public ResponseEntity<FileStatusView> getFileStatus(
+            @PathVariable Long id,
+            @AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.canView(jwt)) {
+            throw new AccessDeniedException("Access denied");
+        }
+        FileStatusView status = fileService.getFileStatus(id);
+        
+        if (!RoleUtil.isAdmin(jwt) && !status.getUserId().equals(jwt.getSubject())) {
+            throw new AccessDeniedException("You can only view your own files");
+        }
+        
+        return ResponseEntity.ok(status);
+    }
+
     @GetMapping
     public ResponseEntity<List<FileEntity>> getUserFiles(@AuthenticationPrincipal Jwt jwt) {
         if (!RoleUtil.canView(jwt)) {
@@ -82,6 +139,57 @@ public class FileController {
         return ResponseEntity.ok(files);
     }
 
+    @GetMapping("/search")
+    public ResponseEntity<Map<String, Object>> searchFiles(
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "lessonId", required = false) Long lessonId,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "20") int size,
+            @AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.canView(jwt)) {
+            throw new AccessDeniedException("Access denied");
+        }
+        if (!fileSearchService.isReady()) {
+            // The local index is still catching up with the files table after startup
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "5")
+                    .build();
+        }
+        try {
+            // Same visibility as the listings: admins see everything, lesson files are visible
+            // to every viewer, otherwise only the caller's own files
+            String ownerFilter = RoleUtil.isAdmin(jwt) || lessonId != null ? null : jwt.getSubject();
+            int pageSize = Math.max(1, Math.min(size, 100));
+            return ResponseEntity.ok(fileSearchService.search(query, ownerFilter, lessonId, page, pageSize));
+        } catch (Exception e) {
+            log.error("Error searching files: {}", query, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/usage")
+    public ResponseEntity<Map<String, Long>> getUserUsage(
+            @RequestParam(value = "userId", required = false) String userId,
+            @AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.canView(jwt)) {
+            throw new AccessDeniedException("Access denied");
+        }
+        if (userId != null && !userId.equals(jwt.getSubject()) && !RoleUtil.isAdmin(jwt)) {
+            throw new AccessDeniedException("You can only view your own storage usage");
+        }
+        return ResponseEntity.ok(storageUsageService.getUserUsage(userId != null ? userId : jwt.getSubject()));
+    }
+
+    @GetMapping("/lesson/{lessonId}/usage")
+    public ResponseEntity<Map<String, Long>> getLessonUsage(
+            @PathVariable Long lessonId,
+            @AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.canView(jwt)) {
+            throw new AccessDeniedException("Access denied");
+        }
+        return ResponseEntity.ok(storageUsageService.getLessonUsage(lessonId));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<FileEntity> getFile(
             @PathVariable Long id,
@@ -101,79 +209,33 @@ public class FileController {
     @GetMapping("/{id}/download")
     public ResponseEntity<InputStreamResource> downloadFile(
             @PathVariable Long id,
-            @AuthenticationPrincipal Jwt jwt) {
+            @AuthenticationPrincipal Jwt jwt,
+            HttpServletRequest request) {
         if (!RoleUtil.canView(jwt)) {
             throw new AccessDeniedException("Access denied");
         }
         try {
             FileEntity file = fileService.getFileById(id);
-            String userId = jwt.getSubject();
-
-            boolean canDownload = false;
             
-            if (RoleUtil.isAdmin(jwt)) {
-                canDownload = true;
-            } else if (file.getUserId().equals(userId)) {
-                canDownload = true;
-            }
-            
-            if (!canDownload) {
+            if (!RoleUtil.canDownload(jwt, file.getUserId())) {
                 throw new AccessDeniedException("You don't have permission to download this file");
             }
             
-            InputStream inputStream = fileService.downloadFile(id);
-            
-            String contentType = file.getContentType();
-            if (contentType == null || contentType.isEmpty()) {
-                String fileName = file.getOriginalFileName().toLowerCase();
-                if (fileName.endsWith(".pdf")) {
-                    contentType = "application/pdf";
-                } else if (fileName.endsWith(".doc") || fileName.endsWith(".docx")) {
-                    contentType = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-                    if (fileName.endsWith(".doc")) {
-                        contentType = "application/msword";
-                    }
-                } else if (fileName.endsWith(".xls") || fileName.endsWith(".xlsx")) {
-                    contentType = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
-                    if (fileName.endsWith(".xls")) {
-                        contentType = "application/vnd.ms-excel";
-                    }
-                } else if (fileName.endsWith(".zip")) {
-                    contentType = "application/zip";
-                } else if (fileName.endsWith(".txt")) {
-                    contentType = "text/plain";
-                } else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) {
-                    contentType = "image/jpeg";
-                } else if (fileName.endsWith(".png")) {
-                    contentType = "image/png";
-                } else {
-                    contentType = "application/octet-stream";
-                }
-            }
-            
-            String encodedFileName = URLEncoder.encode(file.getOriginalFileName(), StandardCharsets.UTF_8)
-                    .replace("+", "%20");
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, 
-                    "attachment; filename=\"" + file.getOriginalFileName() + "\"; filename*=UTF-8''" + encodedFileName);
-            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.getFileSize()));
-            headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
-            headers.add(HttpHeaders.PRAGMA, "no-cache");
-            headers.add(HttpHeaders.EXPIRES, "0");
+            MediaType contentType = MediaType.parseMediaType(StreamingUtil.resolveDownloadContentType(file));
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .headers(StreamingUtil.downloadHeaders(file))
+                    .contentType(contentType)
+                    .contentLength(file.getFileSize());
             
-            InputStreamResource resource = new InputStreamResource(inputStream) {
+            // Opened last so nothing can fail between registering the egress stream and handing it over
+            InputStream inputStream = bandwidthScheduler.throttle(fileService.downloadFile(id), jwt,
+                    request.getRemoteAddr(), BandwidthScheduler.TrafficClass.BULK);
+            return response.body(new InputStreamResource(inputStream) {
                 @Override
                 public long contentLength() {
                     return file.getFileSize();
                 }
-            };
-            
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .contentLength(file.getFileSize())
-                    .body(resource);
+            });
         } catch (AccessDeniedException e) {
             throw e;
         } catch (Exception e) {
@@ -244,17 +306,21 @@ public class FileController {
         }
         try {
             String userId = jwt.getSubject();
-            String objectName = minioService.uploadFile(file);
+            FileEntity fileEntity = fileService.uploadVideo(file, userId, lessonId);
+            String objectName = fileEntity.getObjectName();
             String videoUrl = "/api/files/videos/" + objectName + "/stream";
             
             Map<String, Object> response = new java.util.HashMap<>();
+            response.put("id", fileEntity.getId());
             response.put("objectName", objectName);
             response.put("videoUrl", videoUrl);
-            response.put("fileSize", file.getSize());
+            response.put("fileSize", fileEntity.getFileSize());
             response.put("contentType", file.getContentType());
             response.put("originalFileName", file.getOriginalFilename());
             
             return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (StorageQuotaExceededException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error uploading video", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -264,65 +330,49 @@ public class FileController {
     @GetMapping("/videos/{objectName}/stream")
     public ResponseEntity<InputStreamResource> streamVideo(
             @PathVariable String objectName,
-            @RequestHeader(value = "Range", required = false) String rangeHeader) {
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader(value = "If-Range", required = false) String ifRange,
+            @AuthenticationPrincipal Jwt jwt,
+            HttpServletRequest request) {
         try {
-            String decodedObjectName = objectName;
-            try {
-                String testDecode = java.net.URLDecoder.decode(objectName, java.nio.charset.StandardCharsets.UTF_8);
-                if (!testDecode.equals(objectName) && !testDecode.contains("%")) {
-                    decodedObjectName = testDecode;
-                }
-            } catch (Exception e) {
-                log.debug("Could not decode objectName, using original: {}", objectName);
-            }
+            String decodedObjectName = StreamingUtil.decodeObjectName(objectName);
             
             io.minio.StatObjectResponse statObject = minioService.getFileInfo(decodedObjectName);
             long fileSize = statObject.size();
             
-            String contentType = statObject.contentType();
-            if (contentType == null || contentType.isEmpty()) {
-                String fileName = objectName.toLowerCase();
-                if (fileName.endsWith(".mp4")) {
-                    contentType = "video/mp4";
-                } else if (fileName.endsWith(".webm")) {
-                    contentType = "video/webm";
-                } else if (fileName.endsWith(".ogg")) {
-                    contentType = "video/ogg";
-                } else {
-                    contentType = "video/mp4";
-                }
-            }
+            String contentType = StreamingUtil.resolveVideoContentType(statObject.contentType(), objectName);
+            String etag = StreamingUtil.etag(statObject.etag());
             
-            if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                String[] ranges = rangeHeader.substring(6).split("-");
-                long rangeStart = Long.parseLong(ranges[0]);
-                long rangeEnd = ranges.length > 1 && !ranges[1].isEmpty() 
-                    ? Long.parseLong(ranges[1]) 
-                    : fileSize - 1;
-                
-                if (rangeStart < 0 || rangeEnd >= fileSize || rangeStart > rangeEnd) {
+            ByteRange range = ByteRange.parse(rangeHeader, ifRange, etag, fileSize);
+            if (range != null) {
+                if (!range.isSatisfiable()) {
                     return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                            .header("Content-Range", "bytes */" + fileSize)
+                            .header("Content-Range", range.unsatisfiedContentRange())
                             .build();
                 }
                 
-                long contentLength = rangeEnd - rangeStart + 1;
-                InputStream inputStream = minioService.downloadFile(decodedObjectName, rangeStart, contentLength);
+                InputStream inputStream = bandwidthScheduler.throttle(
+                        videoPrefetchService.openRange(StreamingUtil.clientKey(jwt, request),
+                                statObject.bucket(), decodedObjectName, statObject.etag(), range),
+                        jwt, request.getRemoteAddr(), BandwidthScheduler.TrafficClass.INTERACTIVE);
                 
                 return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
                         .header("Content-Type", contentType)
                         .header("Accept-Ranges", "bytes")
-                        .header("Content-Length", String.valueOf(contentLength))
-                        .header("Content-Range", 
-                            String.format("bytes %d-%d/%d", rangeStart, rangeEnd, fileSize))
-                        .body(new org.springframework.core.io.InputStreamResource(inputStream));
+                        .header("ETag", etag)
+                        .header("Content-Length", String.valueOf(range.length()))
+                        .header("Content-Range", range.contentRange())
+                        .body(new InputStreamResource(inputStream));
             } else {
-                InputStream inputStream = minioService.downloadFile(decodedObjectName);
+                InputStream inputStream = bandwidthScheduler.throttle(
+                        minioService.downloadFile(statObject.bucket(), decodedObjectName, statObject.etag()), jwt,
+                        request.getRemoteAddr(), BandwidthScheduler.TrafficClass.BULK);
                 return ResponseEntity.ok()
                         .header("Content-Type", contentType)
                         .header("Accept-Ranges", "bytes")
+                        .header("ETag", etag)
                         .header("Content-Length", String.valueOf(fileSize))
-                        .body(new org.springframework.core.io.InputStreamResource(inputStream));
+                        .body(new InputStreamResource(inputStream));
             }
         } catch (Exception e) {
             log.error("Error streaming video: {}", objectName, e);
@@ -330,4 +380,3 @@ public class FileController {
         }
     }
 }
-
@@ -0,0 +1,122 @@
+package com.microservices.fileservice.controller;
+
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.service.AsyncStreamingService;
+import com.microservices.fileservice.service.BandwidthScheduler;
+import com.microservices.fileservice.service.FileService;
+import com.microservices.fileservice.service.MinioService;
+import com.microservices.fileservice.service.VideoPrefetchService;
+import com.microservices.fileservice.util.ByteRange;
+import com.microservices.fileservice.util.RoleUtil;
+import com.microservices.fileservice.util.StreamingUtil;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Non-blocking variants of the download and video stream endpoints. Access checks and range
+ * handling are the same as in {@link FileController}; the transfer itself runs on Servlet
+ * async I/O fed by the MinIO async client.
+ */
+@RestController
+@RequestMapping("/api/files/async")
+@RequiredArgsConstructor
+@Slf4j
+public class FileStreamController {
+
+    private final FileService fileService;
+    private final MinioService minioService;
+    private final AsyncStreamingService asyncStreamingService;
+    private final BandwidthScheduler bandwidthScheduler;
+    private final VideoPrefetchService videoPrefetchService;
+
+    @GetMapping("/{id}/download")
+    public void downloadFile(
+            @PathVariable Long id,
+            @AuthenticationPrincipal Jwt jwt,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        if (!RoleUtil.canView(jwt)) {
+            throw new AccessDeniedException("Access denied");
+        }
+        FileEntity file = fileService.getFileById(id);
+
+        if (!RoleUtil.canDownload(jwt, file.getUserId())) {
+            throw new AccessDeniedException("You don't have permission to download this file");
+        }
+
+        HttpHeaders headers = StreamingUtil.downloadHeaders(file);
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        response.setContentType(StreamingUtil.resolveDownloadContentType(file));
+        response.setContentLengthLong(file.getFileSize());
+
+        AsyncContext asyncContext = asyncStreamingService.start(request);
+        asyncStreamingService.pipe(asyncContext,
+                minioService.downloadFileAsync(file.getBucketName(), file.getObjectName()),
+                openEgress(jwt, request, BandwidthScheduler.TrafficClass.BULK));
+    }
+
+    @GetMapping("/videos/{objectName}/stream")
+    public void streamVideo(
+            @PathVariable String objectName,
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader(value = "If-Range", required = false) String ifRange,
+            @AuthenticationPrincipal Jwt jwt,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        String decodedObjectName = StreamingUtil.decodeObjectName(objectName);
+        String clientKey = StreamingUtil.clientKey(jwt, request);
+        AsyncContext asyncContext = asyncStreamingService.start(request);
+
+        minioService.getFileInfoAsync(decodedObjectName).thenAccept(statObject -> {
+            long fileSize = statObject.size();
+            String contentType = StreamingUtil.resolveVideoContentType(statObject.contentType(), objectName);
+            String etag = StreamingUtil.etag(statObject.etag());
+
+            ByteRange range = ByteRange.parse(rangeHeader, ifRange, etag, fileSize);
+            if (range != null && !range.isSatisfiable()) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", range.unsatisfiedContentRange());
+                asyncContext.complete();
+                return;
+            }
+
+            response.setHeader("Content-Type", contentType);
+            response.setHeader("Accept-Ranges", "bytes");
+            // Lets players notice the video was rewritten under the same URL between two ranges
+            response.setHeader("ETag", etag);
+            if (range != null) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Length", String.valueOf(range.length()));
+                response.setHeader("Content-Range", range.contentRange());
+                asyncStreamingService.pipe(asyncContext,
+                        videoPrefetchService.openRangeAsync(clientKey, statObject.bucket(), decodedObjectName,
+                                statObject.etag(), range),
+                        openEgress(jwt, request, BandwidthScheduler.TrafficClass.INTERACTIVE));
+            } else {
+                response.setHeader("Content-Length", String.valueOf(fileSize));
+                asyncStreamingService.pipe(asyncContext,
+                        minioService.downloadFileAsync(statObject.bucket(), decodedObjectName, statObject.etag()),
+                        openEgress(jwt, request, BandwidthScheduler.TrafficClass.BULK));
+            }
+        }).exceptionally(e -> {
+            log.error("Error streaming video: {}", objectName, e);
+            asyncStreamingService.fail(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return null;
+        });
+    }
+
+    private BandwidthScheduler.EgressStream openEgress(Jwt jwt, HttpServletRequest request,
+                                                       BandwidthScheduler.TrafficClass trafficClass) {
+        return bandwidthScheduler.isEnabled()
+                ? bandwidthScheduler.open(jwt, request.getRemoteAddr(), trafficClass)
+                : null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.microservices.fileservice.controller;
+
+import com.microservices.fileservice.service.OrphanReconcilerService;
+import com.microservices.fileservice.service.ShardMigrationService;
+import com.microservices.fileservice.util.RoleUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/files/admin/storage")
+@RequiredArgsConstructor
+@Slf4j
+public class StorageAdminController {
+
+    private final ShardMigrationService shardMigrationService;
+    private final OrphanReconcilerService orphanReconcilerService;
+
+    @PostMapping("/migrate")
+    public ResponseEntity<Map<String, Object>> startMigration(@AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.isAdmin(jwt)) {
+            throw new AccessDeniedException("Only ADMIN role can migrate storage");
+        }
+        boolean started = shardMigrationService.start();
+        log.info("Shard migration requested by {}: started={}", jwt.getSubject(), started);
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT)
+                .body(shardMigrationService.getStatus());
+    }
+
+    @GetMapping("/migrate")
+    public ResponseEntity<Map<String, Object>> getMigrationStatus(@AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.isAdmin(jwt)) {
+            throw new AccessDeniedException("Only ADMIN role can view storage migration");
+        }
+        return ResponseEntity.ok(shardMigrationService.getStatus());
+    }
+
+    @PostMapping("/reconcile")
+    public ResponseEntity<Map<String, Object>> startReconciliation(@AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.isAdmin(jwt)) {
+            throw new AccessDeniedException("Only ADMIN role can reconcile storage");
+        }
+        boolean started = orphanReconcilerService.start();
+        log.info("Orphan reconciliation requested by {}: started={}", jwt.getSubject(), started);
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT)
+                .body(orphanReconcilerService.getStatus());
+    }
+
+    @GetMapping("/reconcile")
+    public ResponseEntity<Map<String, Object>> getReconciliationStatus(@AuthenticationPrincipal Jwt jwt) {
+        if (!RoleUtil.isAdmin(jwt)) {
+            throw new AccessDeniedException("Only ADMIN role can view storage reconciliation");
+        }
+        return ResponseEntity.ok(orphanReconcilerService.getStatus());
+    }
+}
@@ -0,0 +1,8 @@
+package com.microservices.fileservice.exception;
+
+public class StorageQuotaExceededException extends RuntimeException {
+
+    public StorageQuotaExceededException(String message) {
+        super(message);
+    }
+}
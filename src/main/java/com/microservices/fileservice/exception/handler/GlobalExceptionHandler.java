@@ -1,5 +1,6 @@
 package com.microservices.fileservice.exception.handler;
 
+import com.microservices.fileservice.exception.StorageQuotaExceededException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -28,5 +29,19 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.PAYLOAD_TOO_LARGE)
                 .body(errorResponse);
     }
-}
 
+    @ExceptionHandler(StorageQuotaExceededException.class)
+    public ResponseEntity<Map<String, Object>> handleStorageQuotaExceededException(
+            StorageQuotaExceededException ex) {
+        log.warn("Storage quota exceeded: {}", ex.getMessage());
+        
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("error", "Storage quota exceeded");
+        errorResponse.put("message", ex.getMessage());
+        errorResponse.put("status", HttpStatus.PAYLOAD_TOO_LARGE.value());
+        
+        return ResponseEntity
+                .status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(errorResponse);
+    }
+}
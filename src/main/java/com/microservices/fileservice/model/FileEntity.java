@@ -48,6 +48,15 @@ public class FileEntity {
     @Column
     private LocalDateTime processedAt;
 
+    /**
+     * CRC32C of the stored object as hex, computed while uploading.
+     */
+    @Column(length = 8)
+    private String checksum;
+
+    @Column
+    private LocalDateTime verifiedAt;
+
     @Enumerated(EnumType.STRING)
     private FileStatus status = FileStatus.UPLOADED;
 
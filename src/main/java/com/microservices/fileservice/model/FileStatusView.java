@@ -0,0 +1,10 @@
+package com.microservices.fileservice.model;
+
+import java.time.LocalDateTime;
+
+public interface FileStatusView {
+    Long getId();
+    String getUserId();
+    FileEntity.FileStatus getStatus();
+    LocalDateTime getProcessedAt();
+}
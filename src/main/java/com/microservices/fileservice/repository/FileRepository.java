@@ -1,9 +1,17 @@
 package com.microservices.fileservice.repository;
 
 import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.model.FileStatusView;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,8 +20,121 @@ public interface FileRepository extends JpaRepository<FileEntity, Long> {
     List<FileEntity> findByUserId(String userId);
     List<FileEntity> findByLessonId(Long lessonId);
     Optional<FileEntity> findByObjectName(String objectName);
+    List<FileEntity> findByStatusAndUploadedAtBefore(FileEntity.FileStatus status, LocalDateTime uploadedBefore);
     void deleteByObjectName(String objectName);
-}
+    boolean existsByBucketNameAndObjectName(String bucketName, String objectName);
+
+    List<FileEntity> findByIdGreaterThan(Long id, Pageable pageable);
+
+    @Query("select f.id from FileEntity f where f.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    @Query("select f.id as id, f.userId as userId, f.status as status, f.processedAt as processedAt " +
+           "from FileEntity f where f.id = :id")
+    Optional<FileStatusView> findStatusById(@Param("id") Long id);
+
+    @Query("select f.userId, sum(f.fileSize), count(f) from FileEntity f " +
+           "where f.status <> :excludedStatus group by f.userId")
+    List<Object[]> sumUsageByUserId(@Param("excludedStatus") FileEntity.FileStatus excludedStatus);
+
+    @Query("select f.lessonId, sum(f.fileSize), count(f) from FileEntity f " +
+           "where f.lessonId is not null and f.status <> :excludedStatus group by f.lessonId")
+    List<Object[]> sumUsageByLessonId(@Param("excludedStatus") FileEntity.FileStatus excludedStatus);
 
+    /**
+     * Keyset page over one bucket in byte order of the key, the same order MinIO lists objects in.
+     */
+    @Query(value = "select * from files where bucket_name = :bucketName " +
+                   "and object_name collate \"C\" > :afterObjectName " +
+                   "order by object_name collate \"C\" limit :limit", nativeQuery = true)
+    List<FileEntity> findBatchByBucketNameAfter(@Param("bucketName") String bucketName,
+                                                @Param("afterObjectName") String afterObjectName,
+                                                @Param("limit") int limit);
 
+    /**
+     * Files due for an integrity check, never-verified ones first.
+     */
+    @Query("select f from FileEntity f where f.status in :statuses " +
+           "and (f.verifiedAt is null or f.verifiedAt < :verifiedBefore) and f.uploadedAt < :uploadedBefore " +
+           "order by f.verifiedAt asc nulls first, f.id asc")
+    List<FileEntity> findScrubCandidates(@Param("statuses") Collection<FileEntity.FileStatus> statuses,
+                                         @Param("verifiedBefore") LocalDateTime verifiedBefore,
+                                         @Param("uploadedBefore") LocalDateTime uploadedBefore,
+                                         Pageable pageable);
 
+    @Query("select count(f) from FileEntity f where f.status in :statuses " +
+           "and (f.verifiedAt is null or f.verifiedAt < :verifiedBefore) and f.uploadedAt < :uploadedBefore")
+    long countScrubCandidates(@Param("statuses") Collection<FileEntity.FileStatus> statuses,
+                              @Param("verifiedBefore") LocalDateTime verifiedBefore,
+                              @Param("uploadedBefore") LocalDateTime uploadedBefore);
+
+    /**
+     * Records a successful check. Rows without a checksum get the one just computed. Matching on
+     * the location and the expected checksum leaves rows alone whose object was moved to another
+     * bucket or replaced while it was being read.
+     */
+    @Modifying
+    @Transactional
+    @Query("update FileEntity f set f.verifiedAt = :verifiedAt, f.checksum = coalesce(f.checksum, :checksum) " +
+           "where f.id = :id and f.bucketName = :bucketName and f.objectName = :objectName " +
+           "and (f.checksum = :expectedChecksum or (f.checksum is null and :expectedChecksum is null))")
+    int markVerified(@Param("id") Long id, @Param("bucketName") String bucketName,
+                     @Param("objectName") String objectName, @Param("expectedChecksum") String expectedChecksum,
+                     @Param("checksum") String checksum, @Param("verifiedAt") LocalDateTime verifiedAt);
+
+    /**
+     * Points a row at a rewritten object, unless it was renamed, moved or rewritten since it was
+     * read.
+     */
+    @Modifying
+    @Transactional
+    @Query("update FileEntity f set f.bucketName = :newBucketName, f.objectName = :newObjectName, " +
+           "f.fileSize = :fileSize, f.checksum = :checksum, f.verifiedAt = null " +
+           "where f.id = :id and f.bucketName = :bucketName and f.objectName = :objectName " +
+           "and (f.checksum = :expectedChecksum or (f.checksum is null and :expectedChecksum is null))")
+    int replaceObject(@Param("id") Long id, @Param("bucketName") String bucketName,
+                      @Param("objectName") String objectName, @Param("expectedChecksum") String expectedChecksum,
+                      @Param("newBucketName") String newBucketName, @Param("newObjectName") String newObjectName,
+                      @Param("fileSize") long fileSize, @Param("checksum") String checksum);
+
+    /**
+     * Points a row at the bucket its object was copied to, unless it was renamed or moved since it
+     * was read.
+     */
+    @Modifying
+    @Transactional
+    @Query("update FileEntity f set f.bucketName = :targetBucket " +
+           "where f.id = :id and f.bucketName = :sourceBucket and f.objectName = :objectName")
+    int repointBucket(@Param("id") Long id, @Param("objectName") String objectName,
+                      @Param("sourceBucket") String sourceBucket, @Param("targetBucket") String targetBucket);
+
+    /**
+     * Marks a row whose object is missing, unless it has been repointed since it was read or
+     * already has the status.
+     */
+    @Modifying
+    @Transactional
+    @Query("update FileEntity f set f.status = :status, f.processedAt = :processedAt " +
+           "where f.id = :id and f.bucketName = :bucketName and f.objectName = :objectName " +
+           "and f.status <> :status")
+    int markObjectMissing(@Param("id") Long id, @Param("bucketName") String bucketName,
+                          @Param("objectName") String objectName,
+                          @Param("status") FileEntity.FileStatus status,
+                          @Param("processedAt") LocalDateTime processedAt);
+
+    /**
+     * Same conditions as {@link #markVerified}; a row that already has the status is left alone,
+     * so the caller can tell whether it made the transition.
+     */
+    @Modifying
+    @Transactional
+    @Query("update FileEntity f set f.status = :status, f.verifiedAt = :verifiedAt " +
+           "where f.id = :id and f.bucketName = :bucketName and f.objectName = :objectName " +
+           "and f.status <> :status " +
+           "and (f.checksum = :expectedChecksum or (f.checksum is null and :expectedChecksum is null))")
+    int markVerificationFailed(@Param("id") Long id, @Param("bucketName") String bucketName,
+                               @Param("objectName") String objectName,
+                               @Param("expectedChecksum") String expectedChecksum,
+                               @Param("status") FileEntity.FileStatus status,
+                               @Param("verifiedAt") LocalDateTime verifiedAt);
+}
@@ -0,0 +1,249 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.util.ThreadFactories;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves storage objects through Servlet async I/O. The request thread is released as soon as
+ * the transfer is set up; bytes are pushed from a {@link WriteListener} only while the client
+ * socket can take them, so a slow viewer holds no thread while it drains its buffer. Reads from
+ * the storage stream still block, so they run on a separate reader pool: a slow MinIO response
+ * holds a reader thread, never a container thread.
+ */
+@Service
+@Slf4j
+public class AsyncStreamingService {
+
+    @Value("${streaming.async.timeout:PT2H}")
+    private Duration asyncTimeout;
+
+    @Value("${streaming.async.buffer-size:65536}")
+    private int bufferSize;
+
+    @Value("${streaming.async.read-threads:32}")
+    private int readThreads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ScheduledExecutorService resumeScheduler;
+    private ExecutorService readExecutor;
+
+    @PostConstruct
+    void init() {
+        resumeScheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactories.named("stream-resume", virtualThreads));
+        readExecutor = Executors.newFixedThreadPool(readThreads, ThreadFactories.named("stream-read", virtualThreads));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resumeScheduler.shutdownNow();
+        readExecutor.shutdownNow();
+    }
+
+    public AsyncContext start(HttpServletRequest request) {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(asyncTimeout.toMillis());
+        return asyncContext;
+    }
+
+    public void pipe(AsyncContext asyncContext, CompletableFuture<? extends InputStream> source,
+                     BandwidthScheduler.EgressStream egress) {
+        source.whenComplete((inputStream, error) -> {
+            if (error != null) {
+                log.error("Error opening storage stream", error);
+                if (egress != null) {
+                    egress.close();
+                }
+                fail(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            Pump pump = new Pump(asyncContext, inputStream, egress);
+            asyncContext.addListener(pump);
+            // setWriteListener has to be called from a container thread
+            asyncContext.start(() -> {
+                try {
+                    asyncContext.getResponse().getOutputStream().setWriteListener(pump);
+                } catch (Exception e) {
+                    pump.onError(e);
+                }
+            });
+        });
+    }
+
+    public void fail(AsyncContext asyncContext, int status) {
+        try {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(status);
+            }
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    private class Pump implements WriteListener, AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final InputStream inputStream;
+        private final BandwidthScheduler.EgressStream egress;
+        private final byte[] buffer = new byte[bufferSize];
+        // Bytes in the buffer waiting to be written; the reader only fills it while this is 0
+        private int buffered;
+        private boolean reading;
+        private boolean eof;
+        private boolean paused;
+        private boolean done;
+
+        private Pump(AsyncContext asyncContext, InputStream inputStream, BandwidthScheduler.EgressStream egress) {
+            this.asyncContext = asyncContext;
+            this.inputStream = inputStream;
+            this.egress = egress;
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            ServletOutputStream outputStream = asyncContext.getResponse().getOutputStream();
+            while (!done && !paused && outputStream.isReady()) {
+                if (buffered == 0) {
+                    if (eof) {
+                        finish();
+                    } else {
+                        // Resumed once the read has filled the buffer
+                        readAhead();
+                    }
+                    return;
+                }
+                int written = buffered;
+                outputStream.write(buffer, 0, written);
+                buffered = 0;
+                readAhead();
+
+                long wait = egress != null ? egress.reserve(written) : 0;
+                if (wait > 0) {
+                    // Paused by the bandwidth scheduler: come back later instead of sleeping on this thread
+                    paused = true;
+                    resumeScheduler.schedule(this::unpause, wait, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+        }
+
+        private synchronized void readAhead() {
+            if (reading || eof || done) {
+                return;
+            }
+            reading = true;
+            try {
+                readExecutor.execute(this::read);
+            } catch (RejectedExecutionException e) {
+                onError(e);
+            }
+        }
+
+        private void read() {
+            int read;
+            try {
+                read = inputStream.read(buffer);
+            } catch (IOException e) {
+                onError(e);
+                return;
+            }
+            synchronized (this) {
+                reading = false;
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    buffered = read;
+                }
+            }
+            resume();
+        }
+
+        private synchronized void unpause() {
+            paused = false;
+            resume();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.debug("Async stream aborted: {}", t.getMessage());
+            finish();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            log.warn("Async stream timed out");
+            finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private synchronized void resume() {
+            if (done) {
+                return;
+            }
+            asyncContext.start(() -> {
+                try {
+                    onWritePossible();
+                } catch (IOException e) {
+                    onError(e);
+                }
+            });
+        }
+
+        private synchronized void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                log.debug("Error closing storage stream", e);
+            }
+            if (egress != null) {
+                egress.close();
+            }
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // Already completed by the container after a timeout or client abort
+            }
+        }
+    }
+}
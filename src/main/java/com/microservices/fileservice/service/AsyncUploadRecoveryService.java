@@ -0,0 +1,144 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Finishes or fails async uploads that were accepted but never completed, e.g. because the
+ * instance that spooled them restarted or shut down with uploads still queued.
+ *
+ * <p>Every instance marks the uploads it is working on with a heartbeat key in Redis. Rows still
+ * PROCESSING after {@code upload.async.recover-after} without a heartbeat are picked up: if the
+ * spool file is still there (a restarted instance, or a spool directory shared between replicas)
+ * the upload is queued again, otherwise the row is marked FAILED and its usage given back.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AsyncUploadRecoveryService {
+
+    private static final String LOCK_KEY = "file-upload-recovery:lock";
+    private static final String HEARTBEAT_KEY_PREFIX = "file-upload:active:";
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private final FileService fileService;
+    private final FileRepository fileRepository;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${upload.async.recover-after:PT15M}")
+    private Duration recoverAfter;
+
+    @Value("${upload.async.heartbeat-ttl:PT5M}")
+    private Duration heartbeatTtl;
+
+    @Value("${upload.async.recovery-lock-ttl:PT5M}")
+    private Duration lockTtl;
+
+    @Scheduled(fixedDelayString = "${upload.async.recovery-interval:PT1M}",
+               initialDelayString = "${upload.async.recovery-interval:PT1M}")
+    public void recover() {
+        String token = UUID.randomUUID().toString();
+        Boolean locked = null;
+        try {
+            renewHeartbeats();
+
+            locked = redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, lockTtl);
+            if (!Boolean.TRUE.equals(locked)) {
+                return;
+            }
+            List<FileEntity> stale = fileRepository.findByStatusAndUploadedAtBefore(
+                    FileEntity.FileStatus.PROCESSING, LocalDateTime.now().minus(recoverAfter));
+            for (FileEntity fileEntity : stale) {
+                recover(fileEntity);
+            }
+            deleteAbandonedIncomingFiles();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Async upload recovery failed", e);
+        } finally {
+            if (Boolean.TRUE.equals(locked)) {
+                try {
+                    redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), token);
+                } catch (Exception e) {
+                    log.warn("Could not release upload recovery lock, it expires after {}", lockTtl, e);
+                }
+            }
+        }
+    }
+
+    private void renewHeartbeats() {
+        Set<Long> active = fileService.getActiveAsyncUploads();
+        for (Long id : active) {
+            redisTemplate.opsForValue().set(HEARTBEAT_KEY_PREFIX + id, "1", heartbeatTtl);
+        }
+    }
+
+    private void recover(FileEntity fileEntity) throws InterruptedException {
+        Long id = fileEntity.getId();
+        if (fileService.getActiveAsyncUploads().contains(id)
+                || Boolean.TRUE.equals(redisTemplate.hasKey(HEARTBEAT_KEY_PREFIX + id))) {
+            return;
+        }
+        if (!Files.exists(fileService.spoolFile(id))) {
+            fileService.failAsyncUpload(fileEntity, "spool file is gone, the instance that accepted it probably restarted");
+            return;
+        }
+        Optional<UploadAdmissionService.Permit> permit = uploadAdmissionService.tryAdmit(fileEntity.getFileSize());
+        if (permit.isEmpty()) {
+            log.debug("No upload capacity to resume fileId: {}, retrying on the next run", id);
+            return;
+        }
+        log.info("Resuming async upload for fileId: {}", id);
+        redisTemplate.opsForValue().set(HEARTBEAT_KEY_PREFIX + id, "1", heartbeatTtl);
+        fileService.submitAsyncUpload(id, permit.get());
+    }
+
+    private void deleteAbandonedIncomingFiles() throws IOException {
+        Path spoolDirectory = fileService.getSpoolDirectory();
+        if (!Files.isDirectory(spoolDirectory)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - recoverAfter.toMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory,
+                FileService.INCOMING_PREFIX + "*" + FileService.INCOMING_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.delete(file);
+                        log.info("Deleted abandoned upload spool file: {}", file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Moved into place or deleted meanwhile
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.util.RoleUtil;
+import com.microservices.fileservice.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-node egress scheduler. Every download or stream gets a weighted share of the node
+ * bandwidth and may borrow unused capacity; on top of that each user is capped by the
+ * limit configured for their role. Anonymous viewers are capped per client address.
+ */
+@Service
+public class BandwidthScheduler {
+
+    public enum TrafficClass {
+        INTERACTIVE, BULK
+    }
+
+    private static final String ANONYMOUS = "anonymous";
+
+    @Value("${bandwidth.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bandwidth.node-bytes-per-second:125000000}")
+    private long nodeBytesPerSecond;
+
+    @Value("${bandwidth.chunk-size:65536}")
+    private int chunkSize;
+
+    @Value("${bandwidth.interactive-weight:4}")
+    private int interactiveWeight;
+
+    @Value("${bandwidth.bulk-weight:1}")
+    private int bulkWeight;
+
+    @Value("${bandwidth.role-limits.admin:52428800}")
+    private long adminBytesPerSecond;
+
+    @Value("${bandwidth.role-limits.teacher:52428800}")
+    private long teacherBytesPerSecond;
+
+    @Value("${bandwidth.role-limits.client:20971520}")
+    private long clientBytesPerSecond;
+
+    @Value("${bandwidth.role-limits.anonymous:20971520}")
+    private long anonymousBytesPerSecond;
+
+    private final MeterRegistry meterRegistry;
+    private final Set<EgressStream> activeStreams = ConcurrentHashMap.newKeySet();
+    private final Map<String, UserBucket> userBuckets = new ConcurrentHashMap<>();
+    private TokenBucket nodeBucket;
+
+    public BandwidthScheduler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("file.egress.active.streams", activeStreams, Set::size)
+                .description("Downloads and streams currently registered with the egress scheduler")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        nodeBucket = new TokenBucket(nodeBytesPerSecond, nodeBytesPerSecond);
+    }
+
+    public InputStream throttle(InputStream inputStream, Jwt jwt, String clientAddress, TrafficClass trafficClass) {
+        if (!enabled) {
+            return inputStream;
+        }
+        return new ThrottledInputStream(inputStream, open(jwt, clientAddress, trafficClass));
+    }
+
+    public EgressStream open(Jwt jwt, String clientAddress, TrafficClass trafficClass) {
+        String role = resolveRole(jwt);
+        long roleLimit = roleLimit(role);
+
+        String subject = jwt != null ? jwt.getSubject() : null;
+        String limitKey = subject != null ? subject : ANONYMOUS + ':' + clientAddress;
+        UserBucket userBucket = userBuckets.compute(limitKey, (key, existing) -> {
+            UserBucket bucket = existing != null ? existing : new UserBucket(new TokenBucket(roleLimit, roleLimit));
+            bucket.streams++;
+            return bucket;
+        });
+
+        EgressStream stream = new EgressStream(limitKey, role, trafficClass, userBucket.bucket);
+        activeStreams.add(stream);
+        rebalance();
+        return stream;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    private void release(EgressStream stream) {
+        if (!activeStreams.remove(stream)) {
+            return;
+        }
+        userBuckets.computeIfPresent(stream.limitKey, (key, bucket) -> --bucket.streams <= 0 ? null : bucket);
+        rebalance();
+    }
+
+    private synchronized void rebalance() {
+        long totalWeight = 0;
+        for (EgressStream stream : activeStreams) {
+            totalWeight += stream.weight;
+        }
+        if (totalWeight == 0) {
+            return;
+        }
+        for (EgressStream stream : activeStreams) {
+            stream.shareBucket.setRate(Math.max(1, nodeBytesPerSecond * stream.weight / totalWeight));
+        }
+    }
+
+    private long acquire(EgressStream stream, long bytes) {
+        // Unused node capacity may be borrowed freely; once it is used up every stream waits
+        // for both the node cap and its weighted share
+        long nodeWait = 0;
+        long shareWait = 0;
+        if (!nodeBucket.tryAcquire(bytes)) {
+            nodeWait = nodeBucket.reserve(bytes);
+            shareWait = stream.shareBucket.reserve(bytes);
+        }
+        long userWait = stream.limitBucket.reserve(bytes);
+        long wait = Math.max(Math.max(nodeWait, shareWait), userWait);
+
+        stream.bytesCounter.increment(bytes);
+        if (wait > 0) {
+            stream.throttledBytesCounter.increment(bytes);
+            stream.queueDelayTimer.record(wait, TimeUnit.NANOSECONDS);
+        }
+        return wait;
+    }
+
+    private String resolveRole(Jwt jwt) {
+        if (jwt == null) {
+            return ANONYMOUS;
+        }
+        if (RoleUtil.isAdmin(jwt)) {
+            return "admin";
+        }
+        if (RoleUtil.isTeacher(jwt)) {
+            return "teacher";
+        }
+        if (RoleUtil.isClient(jwt)) {
+            return "client";
+        }
+        return ANONYMOUS;
+    }
+
+    private long roleLimit(String role) {
+        return switch (role) {
+            case "admin" -> adminBytesPerSecond;
+            case "teacher" -> teacherBytesPerSecond;
+            case "client" -> clientBytesPerSecond;
+            default -> anonymousBytesPerSecond;
+        };
+    }
+
+    private static class UserBucket {
+        private final TokenBucket bucket;
+        private int streams;
+
+        private UserBucket(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    public class EgressStream implements Closeable {
+
+        private final String limitKey;
+        private final String role;
+        private final TrafficClass trafficClass;
+        private final int weight;
+        private final TokenBucket limitBucket;
+        private final TokenBucket shareBucket;
+        private final Counter bytesCounter;
+        private final Counter throttledBytesCounter;
+        private final Timer queueDelayTimer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private EgressStream(String limitKey, String role, TrafficClass trafficClass, TokenBucket limitBucket) {
+            this.limitKey = limitKey;
+            this.role = role;
+            this.trafficClass = trafficClass;
+            this.weight = trafficClass == TrafficClass.INTERACTIVE ? interactiveWeight : bulkWeight;
+            this.limitBucket = limitBucket;
+            this.shareBucket = new TokenBucket(nodeBytesPerSecond, chunkSize);
+
+            String trafficClassTag = trafficClass.name().toLowerCase();
+            this.bytesCounter = Counter.builder("file.egress.bytes")
+                    .tag("class", trafficClassTag)
+                    .register(meterRegistry);
+            this.throttledBytesCounter = Counter.builder("file.egress.throttled.bytes")
+                    .tag("class", trafficClassTag)
+                    .tag("role", role)
+                    .register(meterRegistry);
+            this.queueDelayTimer = Timer.builder("file.egress.queue.delay")
+                    .tag("class", trafficClassTag)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Accounts for bytes about to be sent and returns the delay in nanoseconds
+         * the caller must observe before sending them.
+         */
+        public long reserve(long bytes) {
+            return acquire(this, bytes);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(this);
+            }
+        }
+    }
+
+    private class ThrottledInputStream extends FilterInputStream {
+
+        private final EgressStream stream;
+
+        private ThrottledInputStream(InputStream in, EgressStream stream) {
+            super(in);
+            this.stream = stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                pace(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, Math.min(len, chunkSize));
+            if (read > 0) {
+                pace(read);
+            }
+            return read;
+        }
+
+        private void pace(int bytes) throws IOException {
+            long wait = stream.reserve(bytes);
+            if (wait <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling egress");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.config.RabbitMQConfig;
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import com.microservices.fileservice.util.ThreadFactories;
+import com.microservices.fileservice.util.TransactionUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Full-text index over file metadata and extracted text, kept in a Lucene index on local disk.
+ * Index updates are applied on a single background thread so they stay in request order
+ * and never slow down the request that triggered them.
+ *
+ * <p>Every replica has its own index. Changes are applied locally and announced on a fanout
+ * exchange; the other replicas re-read the row and apply the same change. On startup the index
+ * is brought up to date with the files table, which also catches changes announced while this
+ * replica was down. That pass indexes metadata only, so {@link #isReady()} turns true without
+ * reading any file from storage; the text of PDFs and text files is extracted afterwards in
+ * small batches between live updates.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileSearchService {
+
+    private static final String ID_FIELD = "id";
+    private static final String FILE_NAME_FIELD = "originalFileName";
+    private static final String CONTENT_TYPE_FIELD = "contentType";
+    private static final String CONTENT_FIELD = "content";
+    private static final String USER_ID_FIELD = "userId";
+    private static final String LESSON_ID_FIELD = "lessonId";
+    private static final String FILE_SIZE_FIELD = "fileSize";
+    private static final String STATUS_FIELD = "status";
+    private static final String UPLOADED_AT_FIELD = "uploadedAt";
+    // Set on documents indexed without the text they should have
+    private static final String CONTENT_PENDING_FIELD = "contentPending";
+    private static final int EXTRACT_BATCH_SIZE = 20;
+    private static final int MAX_RESULT_WINDOW = 10_000;
+    private static final int REBUILD_PAGE_SIZE = 500;
+    private static final String OP_INDEX = "index";
+    private static final String OP_REMOVE = "remove";
+
+    private final FileRepository fileRepository;
+    private final MinioService minioService;
+    private final RabbitTemplate rabbitTemplate;
+
+    @Value("${search.index-dir:./data/search-index}")
+    private String indexDir;
+
+    @Value("${search.extract-content:true}")
+    private boolean extractContent;
+
+    @Value("${search.max-extract-bytes:10MB}")
+    private DataSize maxExtractBytes;
+
+    @Value("${search.max-content-chars:100000}")
+    private int maxContentChars;
+
+    @Value("${search.sync-retry-interval:PT10S}")
+    private Duration syncRetryInterval;
+
+    // Off for the CDS training run, which has no database to synchronize against
+    @Value("${search.sync-on-start:true}")
+    private boolean syncOnStart;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private volatile boolean ready;
+    // Only touched on the index thread
+    private long extractCursor;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService indexExecutor;
+
+    private final StandardAnalyzer analyzer = new StandardAnalyzer();
+    private FSDirectory directory;
+    private IndexWriter indexWriter;
+    private SearcherManager searcherManager;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = Files.createDirectories(Paths.get(indexDir));
+        directory = FSDirectory.open(path);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        indexWriter = new IndexWriter(directory, config);
+        searcherManager = new SearcherManager(indexWriter, null);
+
+        indexExecutor = Executors.newSingleThreadExecutor(ThreadFactories.named("search-index", virtualThreads));
+        if (syncOnStart) {
+            indexExecutor.execute(this::synchronize);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        indexExecutor.shutdown();
+        searcherManager.close();
+        indexWriter.close();
+        directory.close();
+    }
+
+    public void index(FileEntity fileEntity) {
+        TransactionUtil.afterCommit(() -> {
+            indexExecutor.execute(() -> write(fileEntity));
+            publish(fileEntity.getId(), OP_INDEX);
+        });
+    }
+
+    public void remove(Long id) {
+        TransactionUtil.afterCommit(() -> {
+            indexExecutor.execute(() -> delete(id));
+            publish(id, OP_REMOVE);
+        });
+    }
+
+    /**
+     * Applies a change made on another replica. The row is read again rather than trusting the
+     * event, so late or reordered events still leave the index matching the table.
+     */
+    @RabbitListener(queues = "#{searchIndexQueue.name}")
+    public void onIndexEvent(Map<String, Object> event) {
+        if (instanceId.equals(event.get("origin"))) {
+            return;
+        }
+        Long id = ((Number) event.get("fileId")).longValue();
+        indexExecutor.execute(() -> {
+            try {
+                fileRepository.findById(id).ifPresentOrElse(this::write, () -> delete(id));
+            } catch (Exception e) {
+                log.error("Error applying search index event for fileId: {}", id, e);
+            }
+        });
+    }
+
+    /**
+     * False until the index has been brought up to date with the files table after startup.
+     * Text content may still be filling in after that.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Map<String, Object> search(String text, String userId, Long lessonId, int page, int size) throws IOException {
+        Query query = buildQuery(text, userId, lessonId);
+        int pageNumber = Math.max(0, page);
+        int pageSize = Math.max(1, size);
+        long from = Math.min((long) pageNumber * pageSize, MAX_RESULT_WINDOW);
+        int to = (int) Math.min(from + pageSize, MAX_RESULT_WINDOW);
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = searcher.search(query, Math.max(1, to));
+            StoredFields storedFields = searcher.storedFields();
+            List<Map<String, Object>> hits = new ArrayList<>();
+            for (int i = (int) from; i < Math.min(to, topDocs.scoreDocs.length); i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                hits.add(toHit(storedFields.document(scoreDoc.doc), scoreDoc.score));
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("hits", hits);
+            response.put("total", topDocs.totalHits.value);
+            // "gte" when Lucene stopped counting early and total is a lower bound
+            response.put("totalRelation",
+                    topDocs.totalHits.relation == TotalHits.Relation.EQUAL_TO ? "eq" : "gte");
+            response.put("page", pageNumber);
+            response.put("size", pageSize);
+            return response;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${search.refresh-interval:PT1S}")
+    public void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            log.error("Error refreshing search index", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${search.commit-interval:PT30S}")
+    public void commit() {
+        try {
+            if (indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } catch (IOException e) {
+            log.error("Error committing search index", e);
+        }
+    }
+
+    private void write(FileEntity fileEntity) {
+        write(fileEntity, true);
+    }
+
+    private void write(FileEntity fileEntity, boolean withContent) {
+        try {
+            indexWriter.updateDocument(new Term(ID_FIELD, fileEntity.getId().toString()),
+                    toDocument(fileEntity, withContent));
+        } catch (Exception e) {
+            log.error("Error indexing fileId: {}", fileEntity.getId(), e);
+        }
+    }
+
+    private void delete(Long id) {
+        try {
+            indexWriter.deleteDocuments(new Term(ID_FIELD, id.toString()));
+        } catch (Exception e) {
+            log.error("Error removing fileId: {} from search index", id, e);
+        }
+    }
+
+    private void publish(Long id, String op) {
+        try {
+            rabbitTemplate.convertAndSend(RabbitMQConfig.SEARCH_INDEX_EXCHANGE, "", Map.of(
+                "fileId", id,
+                "op", op,
+                "origin", instanceId
+            ));
+        } catch (Exception e) {
+            // Other replicas pick the change up the next time they synchronize on startup
+            log.warn("Could not announce search index change for fileId: {}", id, e);
+        }
+    }
+
+    /**
+     * Brings the index up to date with the files table: an empty index is built from scratch,
+     * otherwise rows that are missing or differ from their document are re-indexed and documents
+     * whose row is gone are removed. Documents are written without their text, which
+     * {@link #extractPending()} fills in next. Retries until it succeeds; the service reports not
+     * ready until then.
+     */
+    private void synchronize() {
+        while (!indexExecutor.isShutdown()) {
+            try {
+                boolean empty = indexWriter.getDocStats().numDocs == 0;
+                log.info(empty ? "Search index is empty, rebuilding from the files table"
+                        : "Bringing search index up to date with the files table");
+                long indexed = reindexChanged(empty);
+                long removed = empty ? 0 : removeDeleted();
+                commit();
+                searcherManager.maybeRefresh();
+                ready = true;
+                log.info("Search index synchronized: {} files indexed, {} removed", indexed, removed);
+                extractCursor = 0;
+                indexExecutor.execute(this::extractPending);
+                return;
+            } catch (Exception e) {
+                log.warn("Search index synchronization failed, retrying in {}", syncRetryInterval, e);
+            }
+            try {
+                Thread.sleep(syncRetryInterval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private long reindexChanged(boolean empty) throws IOException {
+        int pageNumber = 0;
+        long indexed = 0;
+        Page<FileEntity> page;
+        do {
+            page = fileRepository.findAll(PageRequest.of(pageNumber++, REBUILD_PAGE_SIZE, Sort.by("id")));
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                for (FileEntity fileEntity : page) {
+                    if (!empty && isCurrent(searcher, fileEntity)) {
+                        continue;
+                    }
+                    write(fileEntity, false);
+                    indexed++;
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } while (page.hasNext());
+        return indexed;
+    }
+
+    /**
+     * Extracts the text of the next few documents the startup sync left without it, then queues
+     * itself again, so live updates queued meanwhile run in between.
+     */
+    private void extractPending() {
+        if (indexExecutor.isShutdown()) {
+            return;
+        }
+        try {
+            List<FileEntity> rows = fileRepository.findByIdGreaterThan(extractCursor,
+                    PageRequest.of(0, EXTRACT_BATCH_SIZE, Sort.by("id")));
+            if (rows.isEmpty()) {
+                commit();
+                log.info("Search index content extraction finished");
+                return;
+            }
+            searcherManager.maybeRefreshBlocking();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                for (FileEntity fileEntity : rows) {
+                    TermQuery pending = new TermQuery(new Term(CONTENT_PENDING_FIELD, fileEntity.getId().toString()));
+                    if (searcher.count(pending) > 0) {
+                        write(fileEntity);
+                    }
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+            extractCursor = rows.get(rows.size() - 1).getId();
+        } catch (Exception e) {
+            log.warn("Search index content extraction failed, retrying in {}", syncRetryInterval, e);
+            try {
+                Thread.sleep(syncRetryInterval.toMillis());
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        try {
+            indexExecutor.execute(this::extractPending);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private boolean isCurrent(IndexSearcher searcher, FileEntity fileEntity) throws IOException {
+        TopDocs topDocs = searcher.search(new TermQuery(new Term(ID_FIELD, fileEntity.getId().toString())), 1);
+        if (topDocs.scoreDocs.length == 0) {
+            return false;
+        }
+        Document document = searcher.storedFields().document(topDocs.scoreDocs[0].doc);
+        String lessonId = fileEntity.getLessonId() != null ? fileEntity.getLessonId().toString() : null;
+        return Objects.equals(document.get(FILE_NAME_FIELD), fileEntity.getOriginalFileName())
+                && Objects.equals(document.get(CONTENT_TYPE_FIELD), fileEntity.getContentType())
+                && Objects.equals(document.get(USER_ID_FIELD), fileEntity.getUserId())
+                && Objects.equals(document.get(LESSON_ID_FIELD), lessonId)
+                && Objects.equals(document.get(STATUS_FIELD), fileEntity.getStatus().name())
+                && document.getField(FILE_SIZE_FIELD).numericValue().longValue() == fileEntity.getFileSize();
+    }
+
+    private long removeDeleted() throws IOException {
+        long removed = 0;
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            List<Long> batch = new ArrayList<>();
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                LeafReader reader = leaf.reader();
+                Bits liveDocs = reader.getLiveDocs();
+                StoredFields storedFields = reader.storedFields();
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    batch.add(Long.valueOf(storedFields.document(doc, Set.of(ID_FIELD)).get(ID_FIELD)));
+                    if (batch.size() == REBUILD_PAGE_SIZE) {
+                        removed += removeMissing(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            removed += removeMissing(batch);
+        } finally {
+            searcherManager.release(searcher);
+        }
+        return removed;
+    }
+
+    private int removeMissing(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Set<Long> existing = new HashSet<>(fileRepository.findExistingIds(ids));
+        int removed = 0;
+        for (Long id : ids) {
+            if (!existing.contains(id)) {
+                delete(id);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private Query buildQuery(String text, String userId, Long lessonId) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        if (text == null || text.isBlank()) {
+            builder.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        } else {
+            SimpleQueryParser parser = new SimpleQueryParser(analyzer, Map.of(
+                FILE_NAME_FIELD, 3.0f,
+                CONTENT_TYPE_FIELD, 0.5f,
+                CONTENT_FIELD, 1.0f
+            ));
+            parser.setDefaultOperator(BooleanClause.Occur.MUST);
+            builder.add(parser.parse(text), BooleanClause.Occur.MUST);
+        }
+        if (userId != null) {
+            builder.add(new TermQuery(new Term(USER_ID_FIELD, userId)), BooleanClause.Occur.FILTER);
+        }
+        if (lessonId != null) {
+            builder.add(new TermQuery(new Term(LESSON_ID_FIELD, lessonId.toString())), BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+    private Document toDocument(FileEntity fileEntity, boolean withContent) {
+        Document document = new Document();
+        document.add(new StringField(ID_FIELD, fileEntity.getId().toString(), Field.Store.YES));
+        document.add(new TextField(FILE_NAME_FIELD, fileEntity.getOriginalFileName(), Field.Store.YES));
+        document.add(new TextField(CONTENT_TYPE_FIELD, fileEntity.getContentType(), Field.Store.YES));
+        document.add(new StringField(USER_ID_FIELD, fileEntity.getUserId(), Field.Store.YES));
+        if (fileEntity.getLessonId() != null) {
+            document.add(new StringField(LESSON_ID_FIELD, fileEntity.getLessonId().toString(), Field.Store.YES));
+        }
+        document.add(new StoredField(FILE_SIZE_FIELD, fileEntity.getFileSize()));
+        document.add(new StoredField(STATUS_FIELD, fileEntity.getStatus().name()));
+        document.add(new StoredField(UPLOADED_AT_FIELD, fileEntity.getUploadedAt().toString()));
+
+        if (!extractContent || !isExtractable(fileEntity)) {
+            return document;
+        }
+        if (!withContent) {
+            document.add(new StringField(CONTENT_PENDING_FIELD, fileEntity.getId().toString(), Field.Store.NO));
+            return document;
+        }
+        String content = extractText(fileEntity);
+        if (content != null && !content.isEmpty()) {
+            document.add(new TextField(CONTENT_FIELD, content, Field.Store.NO));
+        }
+        return document;
+    }
+
+    private Map<String, Object> toHit(Document document, float score) {
+        Map<String, Object> hit = new HashMap<>();
+        hit.put("id", Long.valueOf(document.get(ID_FIELD)));
+        hit.put("originalFileName", document.get(FILE_NAME_FIELD));
+        hit.put("contentType", document.get(CONTENT_TYPE_FIELD));
+        hit.put("userId", document.get(USER_ID_FIELD));
+        if (document.get(LESSON_ID_FIELD) != null) {
+            hit.put("lessonId", Long.valueOf(document.get(LESSON_ID_FIELD)));
+        }
+        hit.put("fileSize", document.getField(FILE_SIZE_FIELD).numericValue().longValue());
+        hit.put("status", document.get(STATUS_FIELD));
+        hit.put("uploadedAt", document.get(UPLOADED_AT_FIELD));
+        hit.put("score", score);
+        return hit;
+    }
+
+    private boolean isExtractable(FileEntity fileEntity) {
+        if (!isPdf(fileEntity) && !isText(fileEntity)) {
+            return false;
+        }
+        if (fileEntity.getStatus() == FileEntity.FileStatus.PROCESSING
+                || fileEntity.getStatus() == FileEntity.FileStatus.FAILED) {
+            return false;
+        }
+        return fileEntity.getFileSize() > 0 && (!isPdf(fileEntity) || fileEntity.getFileSize() <= maxExtractBytes.toBytes());
+    }
+
+    private boolean isPdf(FileEntity fileEntity) {
+        return "application/pdf".equalsIgnoreCase(fileEntity.getContentType());
+    }
+
+    private boolean isText(FileEntity fileEntity) {
+        String contentType = fileEntity.getContentType() != null ? fileEntity.getContentType().toLowerCase() : "";
+        return contentType.startsWith("text/") || contentType.equals("application/json")
+                || contentType.equals("application/xml");
+    }
+
+    private String extractText(FileEntity fileEntity) {
+        boolean pdf = isPdf(fileEntity);
+        long limit = maxExtractBytes.toBytes();
+        long length = Math.min(fileEntity.getFileSize(), limit);
+        try (InputStream inputStream = minioService.downloadFile(fileEntity.getBucketName(), fileEntity.getObjectName(), 0, length)) {
+            byte[] bytes = inputStream.readAllBytes();
+            String extracted;
+            if (pdf) {
+                try (PDDocument pdfDocument = Loader.loadPDF(bytes)) {
+                    extracted = new PDFTextStripper().getText(pdfDocument);
+                }
+            } else {
+                extracted = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return extracted.length() > maxContentChars ? extracted.substring(0, maxContentChars) : extracted;
+        } catch (Exception e) {
+            log.warn("Could not extract text for fileId: {}", fileEntity.getId(), e);
+            return null;
+        }
+    }
+}
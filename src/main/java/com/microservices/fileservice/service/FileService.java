@@ -1,59 +1,223 @@
 package com.microservices.fileservice.service;
 
 import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.model.FileStatusView;
 import com.microservices.fileservice.repository.FileRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class FileService {
 
+    static final String INCOMING_PREFIX = "incoming-";
+    static final String INCOMING_SUFFIX = ".tmp";
+    private static final String SPOOL_PREFIX = "upload-";
+    private static final String SPOOL_SUFFIX = ".part";
+
     private final FileRepository fileRepository;
     private final MinioService minioService;
     private final RabbitTemplate rabbitTemplate;
+    private final ThreadPoolTaskExecutor uploadExecutor;
+    private final StorageUsageService storageUsageService;
+    private final FileSearchService fileSearchService;
+    private final Mp4FastStartService mp4FastStartService;
+
+    @Value("${upload.async.spool-dir:${java.io.tmpdir}/file-service-spool}")
+    private String spoolDir;
+
+    private final Set<Long> activeAsyncUploads = ConcurrentHashMap.newKeySet();
 
     @Transactional
     public FileEntity uploadFile(MultipartFile file, String userId) throws IOException {
         log.info("Uploading file: {} for user: {}", file.getOriginalFilename(), userId);
+        try (StorageUsageService.Reservation reservation = storageUsageService.reserve(userId, file.getSize())) {
         
-        String objectName;
-        try {
-            objectName = minioService.uploadFile(file);
-        } catch (Exception e) {
-            log.error("Error uploading file to MinIO", e);
-            throw new IOException("Failed to upload file to storage", e);
-        }
+            String objectName = minioService.generateObjectName(file.getOriginalFilename());
+            String checksum;
+            try {
+                checksum = minioService.uploadFile(objectName, file.getInputStream(), file.getSize(), file.getContentType());
+            } catch (Exception e) {
+                log.error("Error uploading file to MinIO", e);
+                throw new IOException("Failed to upload file to storage", e);
+            }
         
-        FileEntity fileEntity = new FileEntity();
-        fileEntity.setFileName(file.getOriginalFilename());
-        fileEntity.setOriginalFileName(file.getOriginalFilename());
-        fileEntity.setContentType(file.getContentType());
-        fileEntity.setFileSize(file.getSize());
-        fileEntity.setObjectName(objectName);
-        fileEntity.setBucketName("files");
-        fileEntity.setUserId(userId);
-        fileEntity.setUploadedAt(LocalDateTime.now());
-        fileEntity.setStatus(FileEntity.FileStatus.UPLOADED);
+            FileEntity fileEntity = new FileEntity();
+            fileEntity.setFileName(file.getOriginalFilename());
+            fileEntity.setOriginalFileName(file.getOriginalFilename());
+            fileEntity.setContentType(file.getContentType());
+            fileEntity.setFileSize(file.getSize());
+            fileEntity.setObjectName(objectName);
+            fileEntity.setChecksum(checksum);
+            fileEntity.setBucketName(minioService.resolveBucket(objectName));
+            fileEntity.setUserId(userId);
+            fileEntity.setUploadedAt(LocalDateTime.now());
+            fileEntity.setStatus(FileEntity.FileStatus.UPLOADED);
         
-        FileEntity saved = fileRepository.save(fileEntity);
+            FileEntity saved = fileRepository.save(fileEntity);
+            storageUsageService.recordAdded(saved, reservation);
+            fileSearchService.index(saved);
+            mp4FastStartService.scheduleAfterCommit(saved);
+        
+            sendFileProcessingMessage(saved.getId(), objectName);
+        
+            sendNotificationMessage(userId, "File uploaded successfully: " + file.getOriginalFilename());
+        
+            return saved;
+        }
+    }
+
+    public FileEntity uploadFileAsync(MultipartFile file, String userId, Long lessonId,
+                                      UploadAdmissionService.Permit permit) throws IOException {
+        log.info("Accepting async upload: {} for user: {}", file.getOriginalFilename(), userId);
+        try (StorageUsageService.Reservation reservation = storageUsageService.reserve(userId, file.getSize())) {
         
-        sendFileProcessingMessage(saved.getId(), objectName);
+            Path spoolDirectory = Files.createDirectories(Paths.get(spoolDir));
+            Path incomingFile = Files.createTempFile(spoolDirectory, INCOMING_PREFIX, INCOMING_SUFFIX);
         
-        sendNotificationMessage(userId, "File uploaded successfully: " + file.getOriginalFilename());
+            FileEntity saved;
+            try {
+                file.transferTo(incomingFile);
+            
+                FileEntity fileEntity = new FileEntity();
+                fileEntity.setFileName(file.getOriginalFilename());
+                fileEntity.setOriginalFileName(file.getOriginalFilename());
+                fileEntity.setContentType(file.getContentType());
+                fileEntity.setFileSize(file.getSize());
+                String objectName = minioService.generateObjectName(file.getOriginalFilename());
+                fileEntity.setObjectName(objectName);
+                fileEntity.setBucketName(minioService.resolveBucket(objectName));
+                fileEntity.setUserId(userId);
+                fileEntity.setLessonId(lessonId);
+                fileEntity.setUploadedAt(LocalDateTime.now());
+                fileEntity.setStatus(FileEntity.FileStatus.PROCESSING);
+            
+                saved = fileRepository.save(fileEntity);
+                storageUsageService.recordAdded(saved, reservation);
+                // Named after the row so recovery can find it after a restart
+                Files.move(incomingFile, spoolFile(saved.getId()), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(incomingFile);
+                throw e;
+            }
         
-        return saved;
+            try {
+                submitAsyncUpload(saved.getId(), permit != null ? permit.detach() : null);
+            } catch (RejectedExecutionException e) {
+                failAsyncUpload(saved, "upload executor is shut down");
+                throw e;
+            }
+            return saved;
+        }
+    }
+
+    /**
+     * Queues the upload of a spooled file. The reservation, if any, is released once it is stored.
+     */
+    public void submitAsyncUpload(Long id, UploadAdmissionService.Permit reservation) {
+        activeAsyncUploads.add(id);
+        try {
+            uploadExecutor.execute(() -> completeAsyncUpload(id, reservation));
+        } catch (RuntimeException e) {
+            activeAsyncUploads.remove(id);
+            if (reservation != null) {
+                reservation.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ids of async uploads queued or running on this instance.
+     */
+    public Set<Long> getActiveAsyncUploads() {
+        return Collections.unmodifiableSet(activeAsyncUploads);
+    }
+
+    public Path spoolFile(Long id) {
+        return Paths.get(spoolDir, SPOOL_PREFIX + id + SPOOL_SUFFIX);
+    }
+
+    public Path getSpoolDirectory() {
+        return Paths.get(spoolDir);
+    }
+
+    /**
+     * Marks an async upload that can no longer complete as FAILED and gives back the usage
+     * counted for it when it was accepted.
+     */
+    public void failAsyncUpload(FileEntity fileEntity, String reason) {
+        log.error("Async upload failed for fileId: {}: {}", fileEntity.getId(), reason);
+        fileEntity.setStatus(FileEntity.FileStatus.FAILED);
+        fileRepository.save(fileEntity);
+        storageUsageService.recordRemoved(fileEntity);
+        try {
+            Files.deleteIfExists(spoolFile(fileEntity.getId()));
+        } catch (IOException e) {
+            log.warn("Could not delete spool file for fileId: {}", fileEntity.getId(), e);
+        }
+    }
+
+    private void completeAsyncUpload(Long id, UploadAdmissionService.Permit reservation) {
+        Path spoolFile = spoolFile(id);
+        FileEntity fileEntity = null;
+        boolean stored = false;
+        try (InputStream inputStream = Files.newInputStream(spoolFile)) {
+            fileEntity = getFileById(id);
+            String checksum = minioService.uploadFile(fileEntity.getBucketName(), fileEntity.getObjectName(),
+                    inputStream, fileEntity.getFileSize(), fileEntity.getContentType());
+            
+            fileEntity.setChecksum(checksum);
+            fileEntity.setStatus(FileEntity.FileStatus.UPLOADED);
+            fileRepository.save(fileEntity);
+            stored = true;
+            fileSearchService.index(fileEntity);
+            mp4FastStartService.scheduleAfterCommit(fileEntity);
+            
+            sendFileProcessingMessage(id, fileEntity.getObjectName());
+            sendNotificationMessage(fileEntity.getUserId(), "File uploaded successfully: " + fileEntity.getOriginalFileName());
+        } catch (Exception e) {
+            log.error("Error completing async upload for fileId: {}", id, e);
+            if (fileEntity != null && !stored) {
+                failAsyncUpload(fileEntity, e.getMessage());
+            }
+        } finally {
+            activeAsyncUploads.remove(id);
+            if (reservation != null) {
+                reservation.close();
+            }
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException e) {
+                log.warn("Could not delete spool file: {}", spoolFile, e);
+            }
+        }
+    }
+
+    public FileStatusView getFileStatus(Long id) {
+        return fileRepository.findStatusById(id)
+                .orElseThrow(() -> new RuntimeException("File not found with id: " + id));
     }
 
     public FileEntity getFileById(Long id) {
@@ -64,34 +228,80 @@ public class FileService {
     @Transactional
     public FileEntity uploadFileToLesson(MultipartFile file, String userId, Long lessonId) throws IOException {
         log.info("Uploading file: {} for lesson: {} by user: {}", file.getOriginalFilename(), lessonId, userId);
+        try (StorageUsageService.Reservation reservation = storageUsageService.reserve(userId, file.getSize())) {
         
-        String objectName;
-        try {
-            objectName = minioService.uploadFile(file);
-        } catch (Exception e) {
-            log.error("Error uploading file to MinIO", e);
-            throw new IOException("Failed to upload file to storage", e);
-        }
+            String objectName = minioService.generateObjectName(file.getOriginalFilename());
+            String checksum;
+            try {
+                checksum = minioService.uploadFile(objectName, file.getInputStream(), file.getSize(), file.getContentType());
+            } catch (Exception e) {
+                log.error("Error uploading file to MinIO", e);
+                throw new IOException("Failed to upload file to storage", e);
+            }
         
-        FileEntity fileEntity = new FileEntity();
-        fileEntity.setFileName(file.getOriginalFilename());
-        fileEntity.setOriginalFileName(file.getOriginalFilename());
-        fileEntity.setContentType(file.getContentType());
-        fileEntity.setFileSize(file.getSize());
-        fileEntity.setObjectName(objectName);
-        fileEntity.setBucketName("files");
-        fileEntity.setUserId(userId);
-        fileEntity.setLessonId(lessonId);
-        fileEntity.setUploadedAt(LocalDateTime.now());
-        fileEntity.setStatus(FileEntity.FileStatus.UPLOADED);
+            FileEntity fileEntity = new FileEntity();
+            fileEntity.setFileName(file.getOriginalFilename());
+            fileEntity.setOriginalFileName(file.getOriginalFilename());
+            fileEntity.setContentType(file.getContentType());
+            fileEntity.setFileSize(file.getSize());
+            fileEntity.setObjectName(objectName);
+            fileEntity.setChecksum(checksum);
+            fileEntity.setBucketName(minioService.resolveBucket(objectName));
+            fileEntity.setUserId(userId);
+            fileEntity.setLessonId(lessonId);
+            fileEntity.setUploadedAt(LocalDateTime.now());
+            fileEntity.setStatus(FileEntity.FileStatus.UPLOADED);
         
-        FileEntity saved = fileRepository.save(fileEntity);
+            FileEntity saved = fileRepository.save(fileEntity);
+            storageUsageService.recordAdded(saved, reservation);
+            fileSearchService.index(saved);
+            mp4FastStartService.scheduleAfterCommit(saved);
         
-        sendFileProcessingMessage(saved.getId(), objectName);
+            sendFileProcessingMessage(saved.getId(), objectName);
         
-        sendNotificationMessage(userId, "File uploaded to lesson: " + file.getOriginalFilename());
+            sendNotificationMessage(userId, "File uploaded to lesson: " + file.getOriginalFilename());
         
-        return saved;
+            return saved;
+        }
+    }
+
+    @Transactional
+    public FileEntity uploadVideo(MultipartFile file, String userId, Long lessonId) throws IOException {
+        log.info("Uploading video: {} by user: {}", file.getOriginalFilename(), userId);
+        try (StorageUsageService.Reservation reservation = storageUsageService.reserve(userId, file.getSize())) {
+        
+            String objectName = minioService.generateObjectName(file.getOriginalFilename());
+            String checksum;
+            try {
+                checksum = minioService.uploadFile(objectName, file.getInputStream(), file.getSize(), file.getContentType());
+            } catch (Exception e) {
+                log.error("Error uploading video to MinIO", e);
+                throw new IOException("Failed to upload video to storage", e);
+            }
+        
+            // Videos are addressed by object name from the lesson service, but still get a row
+            // so the storage they use is tracked like any other file
+            FileEntity fileEntity = new FileEntity();
+            fileEntity.setFileName(file.getOriginalFilename());
+            fileEntity.setOriginalFileName(file.getOriginalFilename());
+            fileEntity.setContentType(file.getContentType());
+            fileEntity.setFileSize(file.getSize());
+            fileEntity.setObjectName(objectName);
+            fileEntity.setChecksum(checksum);
+            fileEntity.setBucketName(minioService.resolveBucket(objectName));
+            fileEntity.setUserId(userId);
+            fileEntity.setLessonId(lessonId);
+            fileEntity.setUploadedAt(LocalDateTime.now());
+            fileEntity.setStatus(FileEntity.FileStatus.UPLOADED);
+        
+            FileEntity saved = fileRepository.save(fileEntity);
+            storageUsageService.recordAdded(saved, reservation);
+            fileSearchService.index(saved);
+            // The key is the public stream URL, so the fast-start rewrite keeps it
+            mp4FastStartService.scheduleInPlaceAfterCommit(saved);
+        
+            return saved;
+        }
     }
 
     public List<FileEntity> getFilesByUserId(String userId) {
@@ -109,7 +319,7 @@ public class FileService {
     public InputStream downloadFile(Long id) throws Exception {
         FileEntity fileEntity = getFileById(id);
         try {
-            return minioService.downloadFile(fileEntity.getObjectName());
+            return minioService.downloadFile(fileEntity.getBucketName(), fileEntity.getObjectName());
         } catch (Exception e) {
             log.error("Error downloading file from MinIO", e);
             throw new Exception("Failed to download file from storage", e);
@@ -130,6 +340,7 @@ public class FileService {
         }
         
         FileEntity updated = fileRepository.save(fileEntity);
+        fileSearchService.index(updated);
         sendNotificationMessage(userId, "File updated: " + updated.getOriginalFileName());
         
         return updated;
@@ -144,12 +355,17 @@ public class FileService {
         }
         
         try {
-            minioService.deleteFile(fileEntity.getObjectName());
+            minioService.deleteFile(fileEntity.getBucketName(), fileEntity.getObjectName());
         } catch (Exception e) {
             log.error("Error deleting file from MinIO", e);
             throw new Exception("Failed to delete file from storage", e);
         }
         fileRepository.deleteById(id);
+        if (fileEntity.getStatus() != FileEntity.FileStatus.FAILED) {
+            // A FAILED row is no longer counted: its usage was given back when it failed
+            storageUsageService.recordRemoved(fileEntity);
+        }
+        fileSearchService.remove(id);
         
         sendNotificationMessage(userId, "File deleted: " + fileEntity.getOriginalFileName());
     }
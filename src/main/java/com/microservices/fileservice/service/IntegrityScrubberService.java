@@ -0,0 +1,251 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import com.microservices.fileservice.util.ChecksumUtil;
+import com.microservices.fileservice.util.ThreadFactories;
+import com.microservices.fileservice.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.errors.ErrorResponseException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
+
+/**
+ * Re-reads stored objects in the background and checks them against the files table: the
+ * byte count must match {@code fileSize} and the CRC32C the checksum recorded at upload. Files
+ * that fail are marked FAILED. Rows from before checksums were recorded get theirs on the first
+ * successful pass.
+ *
+ * <p>Each pass takes the files that are least recently verified and reads them with a pool of
+ * workers sharing one bytes-per-second budget, so scrubbing does not compete with user traffic
+ * for storage bandwidth. A Redis lock keeps replicas from scrubbing the same batch.
+ */
+@Service
+@Slf4j
+public class IntegrityScrubberService {
+
+    private static final String LOCK_KEY = "file-scrubber:lock";
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int LOCK_RENEW_CHUNKS = 1024;
+    private static final List<FileEntity.FileStatus> SCRUBBED_STATUSES =
+            List.of(FileEntity.FileStatus.UPLOADED, FileEntity.FileStatus.PROCESSED);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private final MinioService minioService;
+    private final FileRepository fileRepository;
+    private final StorageUsageService storageUsageService;
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${scrubber.enabled:false}")
+    private boolean enabled;
+
+    @Value("${scrubber.batch-size:200}")
+    private int batchSize;
+
+    @Value("${scrubber.reverify-after:P30D}")
+    private Duration reverifyAfter;
+
+    @Value("${scrubber.upload-grace:PT10M}")
+    private Duration uploadGrace;
+
+    @Value("${scrubber.lock-ttl:PT10M}")
+    private Duration lockTtl;
+
+    private final TokenBucket ioBudget;
+    private final ExecutorService workers;
+    private final AtomicLong backlog = new AtomicLong();
+
+    private final Counter scrubbedBytesCounter;
+    private final Counter verifiedCounter;
+    private final Counter mismatchCounter;
+    private final Counter missingCounter;
+    private final Counter errorCounter;
+
+    public IntegrityScrubberService(MinioService minioService,
+                                    FileRepository fileRepository,
+                                    StorageUsageService storageUsageService,
+                                    StringRedisTemplate redisTemplate,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${scrubber.workers:4}") int workerCount,
+                                    @Value("${scrubber.bytes-per-second:20971520}") long bytesPerSecond,
+                                    @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.minioService = minioService;
+        this.fileRepository = fileRepository;
+        this.storageUsageService = storageUsageService;
+        this.redisTemplate = redisTemplate;
+        this.ioBudget = new TokenBucket(bytesPerSecond, bytesPerSecond);
+        this.workers = Executors.newFixedThreadPool(workerCount, ThreadFactories.named("integrity-scrubber", virtualThreads));
+        this.scrubbedBytesCounter = Counter.builder("file.scrub.bytes")
+                .description("Bytes re-read by the integrity scrubber")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.verifiedCounter = Counter.builder("file.scrub.files")
+                .tag("result", "verified")
+                .register(meterRegistry);
+        this.mismatchCounter = Counter.builder("file.scrub.files")
+                .tag("result", "mismatch")
+                .register(meterRegistry);
+        this.missingCounter = Counter.builder("file.scrub.files")
+                .tag("result", "missing")
+                .register(meterRegistry);
+        this.errorCounter = Counter.builder("file.scrub.files")
+                .tag("result", "error")
+                .register(meterRegistry);
+        Gauge.builder("file.scrub.backlog", backlog, AtomicLong::get)
+                .description("Files due for verification")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${scrubber.interval:PT1M}",
+               initialDelayString = "${scrubber.initial-delay:PT2M}")
+    public void scrub() {
+        if (!enabled) {
+            return;
+        }
+        String token = UUID.randomUUID().toString();
+        Boolean locked = null;
+        try {
+            locked = redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, lockTtl);
+            if (!Boolean.TRUE.equals(locked)) {
+                return;
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime verifiedBefore = now.minus(reverifyAfter);
+            LocalDateTime uploadedBefore = now.minus(uploadGrace);
+            long due = fileRepository.countScrubCandidates(SCRUBBED_STATUSES, verifiedBefore, uploadedBefore);
+            backlog.set(due);
+
+            List<FileEntity> batch = fileRepository.findScrubCandidates(SCRUBBED_STATUSES, verifiedBefore,
+                    uploadedBefore, PageRequest.of(0, batchSize));
+            List<Callable<Void>> tasks = batch.stream()
+                    .map(fileEntity -> (Callable<Void>) () -> {
+                        verify(fileEntity, token);
+                        return null;
+                    })
+                    .toList();
+            workers.invokeAll(tasks);
+            backlog.set(Math.max(0, due - batch.size()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Integrity scrub pass failed", e);
+        } finally {
+            if (Boolean.TRUE.equals(locked)) {
+                try {
+                    redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), token);
+                } catch (Exception e) {
+                    log.warn("Could not release scrubber lock, it expires after {}", lockTtl, e);
+                }
+            }
+        }
+    }
+
+    private void verify(FileEntity fileEntity, String token) throws InterruptedException {
+        Checksum checksum = ChecksumUtil.newChecksum();
+        long bytes = 0;
+        long chunks = 0;
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream inputStream = minioService.downloadFile(fileEntity.getBucketName(), fileEntity.getObjectName())) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+                bytes += read;
+                scrubbedBytesCounter.increment(read);
+                long waitNanos = ioBudget.reserve(read);
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                if (++chunks % LOCK_RENEW_CHUNKS == 0) {
+                    // Only while this pass still holds the lock
+                    redisTemplate.execute(RENEW_SCRIPT, List.of(LOCK_KEY), token, String.valueOf(lockTtl.toMillis()));
+                }
+            }
+        } catch (ErrorResponseException e) {
+            if (NO_SUCH_KEY.equals(e.errorResponse().code())) {
+                missingCounter.increment();
+                markFailed(fileEntity, "object is missing");
+            } else {
+                errorCounter.increment();
+                log.warn("Could not verify fileId: {}", fileEntity.getId(), e);
+            }
+            return;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.warn("Could not verify fileId: {}", fileEntity.getId(), e);
+            return;
+        }
+
+        String actual = ChecksumUtil.toHex(checksum);
+        if (bytes != fileEntity.getFileSize()) {
+            mismatchCounter.increment();
+            markFailed(fileEntity, "size is " + bytes + " bytes, expected " + fileEntity.getFileSize());
+        } else if (fileEntity.getChecksum() != null && !fileEntity.getChecksum().equals(actual)) {
+            mismatchCounter.increment();
+            markFailed(fileEntity, "checksum is " + actual + ", expected " + fileEntity.getChecksum());
+        } else {
+            verifiedCounter.increment();
+            fileRepository.markVerified(fileEntity.getId(), fileEntity.getBucketName(), fileEntity.getObjectName(),
+                    fileEntity.getChecksum(), actual, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Marks the file FAILED unless its row changed since it was read: a shard move points it at
+     * another bucket (and later removes the object read here), a rewrite at new bytes. FAILED rows
+     * are not counted as usage, so its usage is given back.
+     */
+    private void markFailed(FileEntity fileEntity, String reason) {
+        int updated = fileRepository.markVerificationFailed(fileEntity.getId(), fileEntity.getBucketName(),
+                fileEntity.getObjectName(), fileEntity.getChecksum(), FileEntity.FileStatus.FAILED, LocalDateTime.now());
+        if (updated == 0) {
+            log.info("Skipped integrity failure for fileId: {}, its object changed during the check", fileEntity.getId());
+            return;
+        }
+        storageUsageService.recordRemoved(fileEntity);
+        log.error("Integrity check failed for fileId: {} ({}/{}): {}", fileEntity.getId(),
+                fileEntity.getBucketName(), fileEntity.getObjectName(), reason);
+    }
+}
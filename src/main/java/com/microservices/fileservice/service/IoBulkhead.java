@@ -0,0 +1,96 @@
+package com.microservices.fileservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps concurrent blocking MinIO calls. With virtual threads the number of in-flight requests is
+ * practically unbounded, so callers queue cheaply and fairly here instead of each opening its own
+ * storage connection. Database connections need no separate cap: Hikari's pool already queues
+ * callers for {@code connection-timeout}.
+ */
+@Service
+@RequiredArgsConstructor
+public class IoBulkhead {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${bulkhead.enabled:${spring.threads.virtual.enabled:false}}")
+    private boolean enabled;
+
+    @Value("${bulkhead.storage.max-concurrent:64}")
+    private int storageMaxConcurrent;
+
+    @Value("${bulkhead.acquire-timeout:30s}")
+    private Duration acquireTimeout;
+
+    private Semaphore storagePermits;
+
+    @PostConstruct
+    void init() {
+        storagePermits = new Semaphore(storageMaxConcurrent, true);
+        Gauge.builder("file.bulkhead.queued", storagePermits, Semaphore::getQueueLength)
+                .tag("resource", "storage")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void acquireStorage() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (!storagePermits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a storage connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a storage connection");
+        }
+    }
+
+    public void releaseStorage() {
+        if (enabled) {
+            storagePermits.release();
+        }
+    }
+
+    /**
+     * Releases a permit acquired for the stream once it is closed, so the permit covers the
+     * storage connection for as long as the response body is being read.
+     */
+    public InputStream releaseStorageOnClose(InputStream inputStream) {
+        if (!enabled) {
+            return inputStream;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return new FilterInputStream(inputStream) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        releaseStorage();
+                    }
+                }
+            }
+        };
+    }
+}
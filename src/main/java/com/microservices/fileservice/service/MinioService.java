@@ -1,109 +1,305 @@
 package com.microservices.fileservice.service;
 
-import com.microservices.fileservice.config.MinioConfig;
+import com.microservices.fileservice.util.ChecksumUtil;
+
 import io.minio.*;
 import io.minio.errors.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.UUID;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CheckedInputStream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class MinioService {
 
-    private final MinioClient minioClient;
-    private final MinioConfig minioConfig;
+    private static final String NO_SUCH_KEY = "NoSuchKey";
 
-    public void initializeBucket() {
-        try {
-            boolean found = minioClient.bucketExists(BucketExistsArgs.builder()
-                    .bucket(minioConfig.getBucketName())
-                    .build());
-            if (!found) {
-                minioClient.makeBucket(MakeBucketArgs.builder()
-                        .bucket(minioConfig.getBucketName())
+    private final StorageShardRouter shardRouter;
+    private final IoBulkhead ioBulkhead;
+
+    /**
+     * Creates missing buckets. Returns false if any bucket could not be checked or created.
+     */
+    public boolean initializeBucket() {
+        boolean initialized = true;
+        for (StorageShardRouter.Shard shard : shardRouter.allShards()) {
+            try {
+                boolean found = shard.client().bucketExists(BucketExistsArgs.builder()
+                        .bucket(shard.bucket())
                         .build());
-                log.info("Bucket '{}' created successfully", minioConfig.getBucketName());
+                if (!found) {
+                    shard.client().makeBucket(MakeBucketArgs.builder()
+                            .bucket(shard.bucket())
+                            .build());
+                    log.info("Bucket '{}' created successfully on {}", shard.bucket(), shard.endpoint());
+                }
+            } catch (Exception e) {
+                log.error("Error initializing bucket '{}'", shard.bucket(), e);
+                initialized = false;
             }
-        } catch (Exception e) {
-            log.error("Error initializing bucket", e);
         }
+        return initialized;
     }
 
-    public String uploadFile(MultipartFile file) throws IOException, ServerException, 
-            InsufficientDataException, ErrorResponseException, NoSuchAlgorithmException, 
-            InvalidKeyException, InvalidResponseException, XmlParserException, 
+    /**
+     * Uploads to the bucket the key maps to and returns the CRC32C of the bytes written.
+     */
+    public String uploadFile(String objectName, InputStream inputStream, long size, String contentType)
+            throws IOException, ServerException, InsufficientDataException, ErrorResponseException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, XmlParserException,
             InternalException {
-        
-        String objectName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        
-        minioClient.putObject(PutObjectArgs.builder()
-                .bucket(minioConfig.getBucketName())
-                .object(objectName)
-                .stream(file.getInputStream(), file.getSize(), -1)
-                .contentType(file.getContentType())
-                .build());
-        
-        log.info("File uploaded successfully: {}", objectName);
-        return objectName;
+
+        StorageShardRouter.Shard shard = shardRouter.shardFor(objectName);
+        return uploadFile(shard.bucket(), objectName, inputStream, size, contentType);
     }
 
-    public InputStream downloadFile(String objectName) throws ServerException, 
-            InsufficientDataException, ErrorResponseException, IOException, 
-            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, 
+    public String uploadFile(String bucketName, String objectName, InputStream inputStream, long size,
+            String contentType) throws IOException, ServerException, InsufficientDataException,
+            ErrorResponseException, NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
             XmlParserException, InternalException {
-        
-        return minioClient.getObject(GetObjectArgs.builder()
-                .bucket(minioConfig.getBucketName())
-                .object(objectName)
-                .build());
+
+        CheckedInputStream checkedStream = new CheckedInputStream(inputStream, ChecksumUtil.newChecksum());
+        ioBulkhead.acquireStorage();
+        try {
+            shardRouter.shard(bucketName).client().putObject(PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .stream(checkedStream, size, -1)
+                    .contentType(contentType)
+                    .build());
+        } finally {
+            ioBulkhead.releaseStorage();
+        }
+
+        log.info("File uploaded successfully: {}/{}", bucketName, objectName);
+        return ChecksumUtil.toHex(checkedStream.getChecksum());
+    }
+
+    public String generateObjectName(String originalFilename) {
+        return shardRouter.newObjectName(originalFilename);
+    }
+
+    /**
+     * The bucket a newly written object is stored in.
+     */
+    public String resolveBucket(String objectName) {
+        return shardRouter.shardFor(objectName).bucket();
     }
 
-    public InputStream downloadFile(String objectName, long offset, long length) throws ServerException, 
-            InsufficientDataException, ErrorResponseException, IOException, 
-            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, 
+    public InputStream downloadFile(String bucketName, String objectName) throws ServerException,
+            InsufficientDataException, ErrorResponseException, IOException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
             XmlParserException, InternalException {
-        
-        return minioClient.getObject(GetObjectArgs.builder()
-                .bucket(minioConfig.getBucketName())
-                .object(objectName)
-                .offset(offset)
-                .length(length)
-                .build());
+        return downloadFile(bucketName, objectName, null);
     }
 
-    public io.minio.StatObjectResponse getFileInfo(String objectName) throws ServerException, 
-            InsufficientDataException, ErrorResponseException, IOException, 
-            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, 
+    public InputStream downloadFile(String bucketName, String objectName, String matchETag)
+            throws ServerException, InsufficientDataException, ErrorResponseException, IOException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
             XmlParserException, InternalException {
-        
-        return minioClient.statObject(StatObjectArgs.builder()
-                .bucket(minioConfig.getBucketName())
-                .object(objectName)
-                .build());
+
+        GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName);
+        if (matchETag != null) {
+            args.matchETag(matchETag);
+        }
+        // The permit is held until the stream is closed: a slow reader keeps its storage
+        // connection open, so it has to count against the limit
+        ioBulkhead.acquireStorage();
+        try {
+            return ioBulkhead.releaseStorageOnClose(shardRouter.shard(bucketName).client().getObject(args.build()));
+        } catch (Exception e) {
+            ioBulkhead.releaseStorage();
+            throw e;
+        }
+    }
+
+    public InputStream downloadFile(String bucketName, String objectName, long offset, long length)
+            throws ServerException, InsufficientDataException, ErrorResponseException, IOException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
+            XmlParserException, InternalException {
+        return downloadFile(bucketName, objectName, offset, length, null);
     }
 
-    public void deleteFile(String objectName) throws ServerException, 
-            InsufficientDataException, ErrorResponseException, IOException, 
-            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, 
+    /**
+     * Reads a range of the object only while it still has the given ETag, so a response cannot
+     * mix the bytes of an object that was replaced after it was looked up. A replaced object
+     * fails with a PreconditionFailed error response.
+     */
+    public InputStream downloadFile(String bucketName, String objectName, long offset, long length,
+            String matchETag) throws ServerException, InsufficientDataException, ErrorResponseException,
+            IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
             XmlParserException, InternalException {
-        
-        minioClient.removeObject(RemoveObjectArgs.builder()
-                .bucket(minioConfig.getBucketName())
+
+        ioBulkhead.acquireStorage();
+        try {
+            return ioBulkhead.releaseStorageOnClose(shardRouter.shard(bucketName).client().getObject(
+                    rangeArgs(bucketName, objectName, offset, length, matchETag)));
+        } catch (Exception e) {
+            ioBulkhead.releaseStorage();
+            throw e;
+        }
+    }
+
+    public StatObjectResponse getFileInfo(String bucketName, String objectName) throws ServerException,
+            InsufficientDataException, ErrorResponseException, IOException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
+            XmlParserException, InternalException {
+
+        ioBulkhead.acquireStorage();
+        try {
+            return shardRouter.shard(bucketName).client().statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build());
+        } finally {
+            ioBulkhead.releaseStorage();
+        }
+    }
+
+    /**
+     * Looks an object up by key alone. The key's shard is tried first, then every other bucket:
+     * objects not migrated yet, or placed under an older shard layout, are still found.
+     * {@link StatObjectResponse#bucket()} tells where it was found.
+     */
+    public StatObjectResponse getFileInfo(String objectName) throws ServerException,
+            InsufficientDataException, ErrorResponseException, IOException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
+            XmlParserException, InternalException {
+
+        ErrorResponseException notFound = null;
+        for (String bucketName : lookupOrder(objectName)) {
+            try {
+                return getFileInfo(bucketName, objectName);
+            } catch (ErrorResponseException e) {
+                if (!NO_SUCH_KEY.equals(e.errorResponse().code())) {
+                    throw e;
+                }
+                notFound = e;
+            }
+        }
+        throw notFound;
+    }
+
+    /**
+     * The async calls do not go through {@link IoBulkhead}: they are enqueued on the shared OkHttp
+     * dispatcher, which already caps them at {@code minio.http.max-requests(-per-host)} and queues
+     * the rest without holding a thread. Waiting for a permit here would block the caller instead.
+     */
+    public CompletableFuture<GetObjectResponse> downloadFileAsync(String bucketName, String objectName) {
+        return downloadFileAsync(bucketName, objectName, null);
+    }
+
+    public CompletableFuture<GetObjectResponse> downloadFileAsync(String bucketName, String objectName,
+            String matchETag) {
+        GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName);
+        if (matchETag != null) {
+            args.matchETag(matchETag);
+        }
+        return downloadFileAsync(args.build());
+    }
+
+    public CompletableFuture<GetObjectResponse> downloadFileAsync(String bucketName, String objectName,
+            long offset, long length) {
+        return downloadFileAsync(bucketName, objectName, offset, length, null);
+    }
+
+    public CompletableFuture<GetObjectResponse> downloadFileAsync(String bucketName, String objectName,
+            long offset, long length, String matchETag) {
+        return downloadFileAsync(rangeArgs(bucketName, objectName, offset, length, matchETag));
+    }
+
+    public CompletableFuture<StatObjectResponse> getFileInfoAsync(String bucketName, String objectName) {
+        try {
+            return shardRouter.shard(bucketName).asyncClient().statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<StatObjectResponse> getFileInfoAsync(String objectName) {
+        return getFileInfoAsync(lookupOrder(objectName).iterator(), objectName);
+    }
+
+    private CompletableFuture<StatObjectResponse> getFileInfoAsync(Iterator<String> buckets, String objectName) {
+        String bucketName = buckets.next();
+        CompletableFuture<StatObjectResponse> stat = getFileInfoAsync(bucketName, objectName);
+        if (!buckets.hasNext()) {
+            return stat;
+        }
+        return stat.exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ErrorResponseException errorResponse
+                    && NO_SUCH_KEY.equals(errorResponse.errorResponse().code())) {
+                return getFileInfoAsync(buckets, objectName);
+            }
+            return CompletableFuture.failedFuture(cause);
+        });
+    }
+
+    private Set<String> lookupOrder(String objectName) {
+        Set<String> buckets = new LinkedHashSet<>();
+        buckets.add(resolveBucket(objectName));
+        for (StorageShardRouter.Shard shard : shardRouter.allShards()) {
+            buckets.add(shard.bucket());
+        }
+        return buckets;
+    }
+
+    private GetObjectArgs rangeArgs(String bucketName, String objectName, long offset, long length,
+            String matchETag) {
+        GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(bucketName)
                 .object(objectName)
-                .build());
-        
-        log.info("File deleted successfully: {}", objectName);
+                .offset(offset)
+                .length(length);
+        if (matchETag != null) {
+            args.matchETag(matchETag);
+        }
+        return args.build();
     }
-}
 
+    private CompletableFuture<GetObjectResponse> downloadFileAsync(GetObjectArgs args) {
+        try {
+            return shardRouter.shard(args.bucket()).asyncClient().getObject(args);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public void deleteFile(String bucketName, String objectName) throws ServerException,
+            InsufficientDataException, ErrorResponseException, IOException,
+            NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException,
+            XmlParserException, InternalException {
 
+        ioBulkhead.acquireStorage();
+        try {
+            shardRouter.shard(bucketName).client().removeObject(RemoveObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build());
+        } finally {
+            ioBulkhead.releaseStorage();
+        }
 
+        log.info("File deleted successfully: {}/{}", bucketName, objectName);
+    }
+}
@@ -0,0 +1,298 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import com.microservices.fileservice.util.Mp4Moov;
+import com.microservices.fileservice.util.ThreadFactories;
+import com.microservices.fileservice.util.TransactionUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites MP4 files that have their 'moov' index after the media data so that it comes first,
+ * letting players start without fetching the tail of the file. Only the moov box is held in
+ * memory; the media data is streamed from the original object into a new one with ranged reads.
+ */
+@Service
+@Slf4j
+public class Mp4FastStartService {
+
+    private static final Set<String> MP4_CONTENT_TYPES = Set.of("video/mp4", "video/quicktime", "video/x-m4v");
+    private static final Set<String> MP4_EXTENSIONS = Set.of(".mp4", ".m4v", ".mov");
+    private static final int BOX_HEADER_READ = 16;
+
+    private final MinioService minioService;
+    private final FileRepository fileRepository;
+    private final FileSearchService fileSearchService;
+    private final StorageUsageService storageUsageService;
+    private final VideoPrefetchService videoPrefetchService;
+
+    @Value("${video.faststart.enabled:true}")
+    private boolean enabled;
+
+    @Value("${video.faststart.max-moov-size:64MB}")
+    private DataSize maxMoovSize;
+
+    @Value("${video.faststart.delete-grace:PT1H}")
+    private Duration deleteGrace;
+
+    private final Counter relocatedCounter;
+    private final Counter skippedCounter;
+    private final Counter failedCounter;
+
+    private final ScheduledExecutorService executor;
+
+    public Mp4FastStartService(MinioService minioService,
+                               FileRepository fileRepository,
+                               FileSearchService fileSearchService,
+                               StorageUsageService storageUsageService,
+                               VideoPrefetchService videoPrefetchService,
+                               MeterRegistry meterRegistry,
+                               @Value("${video.faststart.threads:2}") int threads,
+                               @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.minioService = minioService;
+        this.fileRepository = fileRepository;
+        this.fileSearchService = fileSearchService;
+        this.storageUsageService = storageUsageService;
+        this.videoPrefetchService = videoPrefetchService;
+        this.relocatedCounter = Counter.builder("file.faststart")
+                .tag("outcome", "relocated")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("file.faststart")
+                .tag("outcome", "skipped")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("file.faststart")
+                .tag("outcome", "failed")
+                .register(meterRegistry);
+        this.executor = Executors.newScheduledThreadPool(threads, ThreadFactories.named("mp4-faststart", virtualThreads));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private boolean isCandidate(String contentType, String fileName) {
+        if (!enabled) {
+            return false;
+        }
+        if (contentType != null && MP4_CONTENT_TYPES.contains(contentType.toLowerCase())) {
+            return true;
+        }
+        String lowerName = fileName != null ? fileName.toLowerCase() : "";
+        return MP4_EXTENSIONS.stream().anyMatch(lowerName::endsWith);
+    }
+
+    /**
+     * Queues the file for relocation once the current transaction commits. The row is pointed
+     * at the rewritten object and the original is removed after a grace period, so downloads
+     * and processing that already resolved the old key can finish.
+     */
+    public void scheduleAfterCommit(FileEntity fileEntity) {
+        schedule(fileEntity, false);
+    }
+
+    /**
+     * Like {@link #scheduleAfterCommit}, but rewrites the object under its own key, for videos
+     * whose key is handed out as the stream URL. The store swaps the object in one step, which
+     * changes its ETag: stream responses carry it, honour If-Range and pin every read to the ETag
+     * they started with, so a player resuming across the swap gets the new file whole instead
+     * of mixed ranges. Read-ahead buffered for the old version is dropped.
+     */
+    public void scheduleInPlaceAfterCommit(FileEntity fileEntity) {
+        schedule(fileEntity, true);
+    }
+
+    private void schedule(FileEntity fileEntity, boolean inPlace) {
+        if (!isCandidate(fileEntity.getContentType(), fileEntity.getOriginalFileName())) {
+            return;
+        }
+        Long id = fileEntity.getId();
+        TransactionUtil.afterCommit(() -> executor.execute(() -> process(id, inPlace)));
+    }
+
+    /**
+     * Writes a fast-start copy of the object, under its own key or under a new key in the bucket
+     * that key maps to. Returns null when the file is already fast-start or is not a plain MP4
+     * this can handle.
+     */
+    private Relocated relocate(String bucketName, String objectName, long fileSize, String contentType,
+                              String originalFileName, boolean inPlace) throws Exception {
+        Layout layout = scanTopLevelBoxes(bucketName, objectName, fileSize);
+        if (layout == null || layout.moov() == null || layout.firstMdat() == null
+                || layout.moov().offset() < layout.firstMdat().offset()) {
+            return null;
+        }
+        Mp4Moov.BoxHeader moov = layout.moov();
+        Mp4Moov.BoxHeader firstMdat = layout.firstMdat();
+        if (moov.size() > maxMoovSize.toBytes()) {
+            log.warn("moov of {} is {} bytes, over the fast-start limit", objectName, moov.size());
+            return null;
+        }
+
+        byte[] oldMoov;
+        try (InputStream inputStream = minioService.downloadFile(bucketName, objectName, moov.offset(), moov.size())) {
+            oldMoov = inputStream.readAllBytes();
+        }
+        byte[] newMoov = Mp4Moov.parse(oldMoov).relocate(firstMdat.offset(), moov.offset(), moov.size());
+
+        long insertOffset = firstMdat.offset();
+        long newSize = fileSize - moov.size() + newMoov.length;
+        List<Segment> segments = new ArrayList<>();
+        segments.add(new Segment(0, insertOffset, null));
+        segments.add(new Segment(0, newMoov.length, newMoov));
+        segments.add(new Segment(insertOffset, moov.offset() - insertOffset, null));
+        segments.add(new Segment(moov.end(), fileSize - moov.end(), null));
+
+        String newObjectName = inPlace ? objectName : minioService.generateObjectName(originalFileName);
+        String newBucketName = inPlace ? bucketName : minioService.resolveBucket(newObjectName);
+        String checksum;
+        // Ranged reads of the original keep seeing the old object until an in-place upload completes
+        try (InputStream rewritten = new SequenceInputStream(open(bucketName, objectName, segments))) {
+            checksum = minioService.uploadFile(newBucketName, newObjectName, rewritten, newSize, contentType);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Relocated moov of {}/{} to the front as {}/{}", bucketName, objectName, newBucketName, newObjectName);
+        return new Relocated(newObjectName, newBucketName, newSize, checksum);
+    }
+
+    private void deleteLater(String bucketName, String objectName) {
+        executor.schedule(() -> {
+            try {
+                minioService.deleteFile(bucketName, objectName);
+            } catch (Exception e) {
+                log.error("Error removing pre-faststart object {}/{}", bucketName, objectName, e);
+            }
+        }, deleteGrace.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void process(Long id, boolean inPlace) {
+        try {
+            FileEntity fileEntity = fileRepository.findById(id).orElse(null);
+            if (fileEntity == null || fileEntity.getStatus() == FileEntity.FileStatus.FAILED) {
+                return;
+            }
+            String oldBucket = fileEntity.getBucketName();
+            String oldObjectName = fileEntity.getObjectName();
+            Relocated relocated = relocate(oldBucket, oldObjectName, fileEntity.getFileSize(),
+                    fileEntity.getContentType(), fileEntity.getOriginalFileName(), inPlace);
+            if (relocated == null) {
+                skippedCounter.increment();
+                return;
+            }
+
+            if (inPlace) {
+                videoPrefetchService.invalidate(oldBucket, oldObjectName);
+            }
+
+            // Only if nothing renamed, moved or rewrote the file during the rewrite
+            int updated = fileRepository.replaceObject(id, oldBucket, oldObjectName, fileEntity.getChecksum(),
+                    relocated.bucketName(), relocated.objectName(), relocated.fileSize(), relocated.checksum());
+            if (updated == 0) {
+                // In place, the object is the file's own; it is only stale if the row is gone
+                if (!inPlace || !fileRepository.existsById(id)) {
+                    minioService.deleteFile(relocated.bucketName(), relocated.objectName());
+                }
+                skippedCounter.increment();
+                return;
+            }
+            storageUsageService.recordResized(fileEntity, relocated.fileSize() - fileEntity.getFileSize());
+            fileRepository.findById(id).ifPresent(fileSearchService::index);
+            relocatedCounter.increment();
+            if (!inPlace) {
+                deleteLater(oldBucket, oldObjectName);
+            }
+        } catch (Exception e) {
+            failedCounter.increment();
+            log.error("Error relocating moov for fileId: {}", id, e);
+        }
+    }
+
+    /**
+     * Walks the top-level boxes until the moov and the first mdat are both known. Returns null
+     * for fragmented files, whose offsets live in moof boxes this does not rewrite.
+     */
+    private Layout scanTopLevelBoxes(String bucketName, String objectName, long fileSize) throws Exception {
+        Mp4Moov.BoxHeader moov = null;
+        Mp4Moov.BoxHeader firstMdat = null;
+        long offset = 0;
+        while (offset + 8 <= fileSize && (moov == null || firstMdat == null)) {
+            int length = (int) Math.min(BOX_HEADER_READ, fileSize - offset);
+            byte[] header;
+            try (InputStream inputStream = minioService.downloadFile(bucketName, objectName, offset, length)) {
+                header = inputStream.readAllBytes();
+            }
+            Mp4Moov.BoxHeader box = Mp4Moov.BoxHeader.parse(header, offset, fileSize);
+            switch (box.type()) {
+                case Mp4Moov.MOOV -> moov = box;
+                case "mdat" -> firstMdat = box;
+                case "moof" -> {
+                    return null;
+                }
+                default -> {
+                }
+            }
+            offset = box.end();
+        }
+        return new Layout(moov, firstMdat);
+    }
+
+    /**
+     * Opens each part only when the previous one is exhausted, so a single ranged read is open
+     * at a time.
+     */
+    private Enumeration<InputStream> open(String bucketName, String objectName, List<Segment> segments) {
+        Iterator<Segment> iterator = segments.stream().filter(segment -> segment.length() > 0).iterator();
+        return new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Segment segment = iterator.next();
+                if (segment.bytes() != null) {
+                    return new ByteArrayInputStream(segment.bytes());
+                }
+                try {
+                    return minioService.downloadFile(bucketName, objectName, segment.offset(), segment.length());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (Exception e) {
+                    throw new UncheckedIOException(new IOException("Failed to read " + objectName, e));
+                }
+            }
+        };
+    }
+
+    private record Relocated(String objectName, String bucketName, long fileSize, String checksum) {
+    }
+
+    private record Segment(long offset, long length, byte[] bytes) {
+    }
+
+    private record Layout(Mp4Moov.BoxHeader moov, Mp4Moov.BoxHeader firstMdat) {
+    }
+}
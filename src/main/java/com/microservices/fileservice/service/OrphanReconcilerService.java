@@ -0,0 +1,395 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import com.microservices.fileservice.util.ThreadFactories;
+import com.microservices.fileservice.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.ListObjectsArgs;
+import io.minio.Result;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Item;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds storage the files table does not know about and rows whose object is gone. Each bucket
+ * is listed in key order and merge-joined against the rows for that bucket read in the same
+ * order in keyset pages, so memory stays bounded by one listing page and one row batch no
+ * matter how many objects there are.
+ *
+ * <p>Objects without a row are deleted once they are older than the grace period, at a limited
+ * rate; rows without an object are marked FAILED. In dry-run mode both are only counted.
+ * A Redis lock keeps replicas from reconciling concurrently.
+ */
+@Service
+@Slf4j
+public class OrphanReconcilerService {
+
+    private static final String LOCK_KEY = "file-reconciler:lock";
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private final StorageShardRouter shardRouter;
+    private final MinioService minioService;
+    private final FileRepository fileRepository;
+    private final StorageUsageService storageUsageService;
+    private final ShardMigrationService shardMigrationService;
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${reconciler.enabled:false}")
+    private boolean enabled;
+
+    @Value("${reconciler.dry-run:true}")
+    private boolean dryRun;
+
+    @Value("${reconciler.grace-period:PT24H}")
+    private Duration gracePeriod;
+
+    @Value("${reconciler.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${reconciler.lock-ttl:PT30M}")
+    private Duration lockTtl;
+
+    private final TokenBucket deleteLimiter;
+
+    private final Counter orphanObjectsCounter;
+    private final Counter missingObjectsCounter;
+    private final Counter deletedObjectsCounter;
+    private final Counter reclaimedBytesCounter;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong orphanObjects = new AtomicLong();
+    private final AtomicLong orphanBytes = new AtomicLong();
+    private final AtomicLong missingObjects = new AtomicLong();
+    private final AtomicLong deletedObjects = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private volatile boolean lastRunDryRun;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+
+    private final ExecutorService executor;
+
+    public OrphanReconcilerService(StorageShardRouter shardRouter,
+                                   MinioService minioService,
+                                   FileRepository fileRepository,
+                                   StorageUsageService storageUsageService,
+                                   ShardMigrationService shardMigrationService,
+                                   StringRedisTemplate redisTemplate,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${reconciler.deletes-per-second:20}") long deletesPerSecond,
+                                   @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.shardRouter = shardRouter;
+        this.minioService = minioService;
+        this.fileRepository = fileRepository;
+        this.storageUsageService = storageUsageService;
+        this.shardMigrationService = shardMigrationService;
+        this.redisTemplate = redisTemplate;
+        this.deleteLimiter = new TokenBucket(deletesPerSecond, Math.max(1, deletesPerSecond));
+        this.executor = Executors.newSingleThreadExecutor(ThreadFactories.named("orphan-reconciler", virtualThreads));
+        this.orphanObjectsCounter = Counter.builder("file.reconciler.orphan.objects")
+                .description("Stored objects with no files row")
+                .register(meterRegistry);
+        this.missingObjectsCounter = Counter.builder("file.reconciler.missing.objects")
+                .description("Files rows whose object is missing from storage")
+                .register(meterRegistry);
+        this.deletedObjectsCounter = Counter.builder("file.reconciler.deleted.objects")
+                .register(meterRegistry);
+        this.reclaimedBytesCounter = Counter.builder("file.reconciler.reclaimed.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(cron = "${reconciler.cron:0 30 3 * * *}")
+    public void scheduledRun() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        scanned.set(0);
+        orphanObjects.set(0);
+        orphanBytes.set(0);
+        missingObjects.set(0);
+        deletedObjects.set(0);
+        reclaimedBytes.set(0);
+        lastRunDryRun = dryRun;
+        startedAt = LocalDateTime.now();
+        finishedAt = null;
+        executor.execute(this::reconcile);
+        return true;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("running", running.get());
+        status.put("dryRun", lastRunDryRun);
+        status.put("scanned", scanned.get());
+        status.put("orphanObjects", orphanObjects.get());
+        status.put("orphanBytes", orphanBytes.get());
+        status.put("missingObjects", missingObjects.get());
+        status.put("deletedObjects", deletedObjects.get());
+        status.put("reclaimedBytes", reclaimedBytes.get());
+        if (startedAt != null) {
+            status.put("startedAt", startedAt.toString());
+        }
+        if (finishedAt != null) {
+            status.put("finishedAt", finishedAt.toString());
+        }
+        return status;
+    }
+
+    private void reconcile() {
+        Boolean locked = null;
+        try {
+            locked = redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, instanceId, lockTtl);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.info("Orphan reconciliation skipped, another instance holds the lock");
+                return;
+            }
+            // Objects are briefly in two buckets while a shard migration moves them
+            if (shardMigrationService.isRunningAnywhere()) {
+                log.info("Orphan reconciliation skipped, shard migration in progress");
+                return;
+            }
+            log.info("Orphan reconciliation started (dryRun={})", lastRunDryRun);
+            Set<String> buckets = new LinkedHashSet<>();
+            for (StorageShardRouter.Shard shard : shardRouter.allShards()) {
+                if (buckets.add(shard.bucket())) {
+                    reconcileBucket(shard);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Orphan reconciliation interrupted");
+        } catch (Exception e) {
+            log.error("Orphan reconciliation aborted", e);
+        } finally {
+            if (Boolean.TRUE.equals(locked)) {
+                try {
+                    redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), instanceId);
+                } catch (Exception e) {
+                    log.warn("Could not release reconciler lock, it expires after {}", lockTtl, e);
+                }
+            }
+            finishedAt = LocalDateTime.now();
+            running.set(false);
+            log.info("Orphan reconciliation finished: scanned={}, orphanObjects={}, missingObjects={}, deleted={}, reclaimedBytes={}",
+                    scanned.get(), orphanObjects.get(), missingObjects.get(), deletedObjects.get(), reclaimedBytes.get());
+        }
+    }
+
+    private void reconcileBucket(StorageShardRouter.Shard shard) throws Exception {
+        ZonedDateTime objectCutoff = ZonedDateTime.now().minus(gracePeriod);
+        LocalDateTime rowCutoff = LocalDateTime.now().minus(gracePeriod);
+
+        Iterator<Result<Item>> objects = shard.client().listObjects(ListObjectsArgs.builder()
+                .bucket(shard.bucket())
+                .recursive(true)
+                .build()).iterator();
+        RowCursor rows = new RowCursor(shard.bucket());
+
+        Item item = nextObject(objects);
+        FileEntity row = rows.next();
+        while (item != null || row != null) {
+            int cmp = item == null ? 1 : row == null ? -1 : compareKeys(item.objectName(), row.getObjectName());
+            if (cmp < 0) {
+                if (item.lastModified() != null && item.lastModified().isBefore(objectCutoff)) {
+                    handleOrphanObject(shard.bucket(), item);
+                }
+                item = nextObject(objects);
+            } else if (cmp > 0) {
+                if (row.getUploadedAt().isBefore(rowCutoff) && row.getStatus() != FileEntity.FileStatus.FAILED) {
+                    handleMissingObject(row);
+                }
+                row = rows.next();
+            } else {
+                item = nextObject(objects);
+                row = rows.next();
+            }
+        }
+    }
+
+    private void handleOrphanObject(String bucketName, Item item) throws InterruptedException {
+        orphanObjects.incrementAndGet();
+        orphanBytes.addAndGet(item.size());
+        orphanObjectsCounter.increment();
+        if (lastRunDryRun) {
+            log.info("Orphan object (dry run): {}/{} ({} bytes)", bucketName, item.objectName(), item.size());
+            return;
+        }
+
+        long waitNanos = deleteLimiter.reserve(1);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        try {
+            // The row may have been written since the page was read. A row for the key in another
+            // bucket does not count: this is then a source a shard migration did not get to remove
+            if (fileRepository.existsByBucketNameAndObjectName(bucketName, item.objectName())) {
+                return;
+            }
+            minioService.deleteFile(bucketName, item.objectName());
+            deletedObjects.incrementAndGet();
+            reclaimedBytes.addAndGet(item.size());
+            deletedObjectsCounter.increment();
+            reclaimedBytesCounter.increment(item.size());
+        } catch (Exception e) {
+            log.error("Error deleting orphan object {}/{}", bucketName, item.objectName(), e);
+        }
+    }
+
+    private void handleMissingObject(FileEntity fileEntity) {
+        missingObjects.incrementAndGet();
+        missingObjectsCounter.increment();
+        if (lastRunDryRun) {
+            log.info("Missing object (dry run) for fileId: {}, {}/{}",
+                    fileEntity.getId(), fileEntity.getBucketName(), fileEntity.getObjectName());
+            return;
+        }
+        try {
+            minioService.getFileInfo(fileEntity.getBucketName(), fileEntity.getObjectName());
+            return;
+        } catch (ErrorResponseException e) {
+            if (!NO_SUCH_KEY.equals(e.errorResponse().code())) {
+                log.error("Error checking object for fileId: {}", fileEntity.getId(), e);
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Error checking object for fileId: {}", fileEntity.getId(), e);
+            return;
+        }
+        // The row was read minutes ago: only fail it if it still points at the object checked here
+        int updated = fileRepository.markObjectMissing(fileEntity.getId(), fileEntity.getBucketName(),
+                fileEntity.getObjectName(), FileEntity.FileStatus.FAILED, LocalDateTime.now());
+        if (updated == 0) {
+            log.info("Skipped missing object for fileId: {}, its row changed since it was read", fileEntity.getId());
+            return;
+        }
+        log.warn("Object missing for fileId: {}, marked FAILED", fileEntity.getId());
+        storageUsageService.recordRemoved(fileEntity);
+    }
+
+    private Item nextObject(Iterator<Result<Item>> objects) throws Exception {
+        while (objects.hasNext()) {
+            Item item = objects.next().get();
+            if (!item.isDir()) {
+                if (scanned.incrementAndGet() % batchSize == 0) {
+                    renewLock();
+                }
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the lock alive on long runs, but only while this instance still holds it.
+     */
+    private void renewLock() {
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(LOCK_KEY), instanceId,
+                String.valueOf(lockTtl.toMillis()));
+        if (!Long.valueOf(1).equals(renewed)) {
+            throw new IllegalStateException("Reconciler lock was lost");
+        }
+    }
+
+    /**
+     * Orders keys the way MinIO lists them (UTF-8 byte order), which is code point order and
+     * not the UTF-16 order of {@link String#compareTo}.
+     */
+    static int compareKeys(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Reads one bucket's rows in key order, one keyset page at a time.
+     */
+    private class RowCursor {
+
+        private final String bucketName;
+        private List<FileEntity> batch = List.of();
+        private int index;
+        private String lastObjectName = "";
+        private boolean exhausted;
+
+        RowCursor(String bucketName) {
+            this.bucketName = bucketName;
+        }
+
+        FileEntity next() {
+            if (index == batch.size()) {
+                if (exhausted) {
+                    return null;
+                }
+                batch = fileRepository.findBatchByBucketNameAfter(bucketName, lastObjectName, batchSize);
+                index = 0;
+                exhausted = batch.size() < batchSize;
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                lastObjectName = batch.get(batch.size() - 1).getObjectName();
+            }
+            return batch.get(index++);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import com.microservices.fileservice.util.ThreadFactories;
+import io.minio.CopyObjectArgs;
+import io.minio.CopySource;
+import io.minio.GetObjectArgs;
+import io.minio.ListObjectsArgs;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves objects that are not in the bucket their key maps to under the current shard layout,
+ * e.g. everything in the legacy bucket after sharding is switched on, or keys whose shard
+ * changed after buckets were added. Objects keep their key; the copy is made first, the
+ * files row is pointed at the new bucket, and the source is removed only after a grace period
+ * so reads that already resolved the old location can finish. Pending source deletes are kept
+ * in Redis, so any instance finishes them after a restart. A Redis lock keeps replicas from
+ * migrating concurrently.
+ *
+ * <p>Objects without a row are left where they are for the orphan reconciler.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ShardMigrationService {
+
+    private static final String LOCK_KEY = "file-shard-migration:lock";
+    // Sorted set of "bucket/objectName" scored by when the source may be removed
+    private static final String PENDING_DELETES_KEY = "file-shard-migration:pending-deletes";
+    private static final int DELETE_BATCH = 1000;
+    private static final int RENEW_EVERY = 100;
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private final StorageShardRouter shardRouter;
+    private final FileRepository fileRepository;
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${minio.sharding.migration.delete-grace:PT5M}")
+    private Duration deleteGrace;
+
+    @Value("${minio.sharding.migration.pause-between-objects:PT0.05S}")
+    private Duration pauseBetweenObjects;
+
+    @Value("${minio.sharding.migration.lock-ttl:PT30M}")
+    private Duration lockTtl;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong movedBytes = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newSingleThreadExecutor(ThreadFactories.named("shard-migration", virtualThreads));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean start() {
+        if (!shardRouter.isShardingEnabled() || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, instanceId, lockTtl))) {
+                log.info("Shard migration not started, another instance holds the lock");
+                running.set(false);
+                return false;
+            }
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        scanned.set(0);
+        moved.set(0);
+        movedBytes.set(0);
+        failed.set(0);
+        startedAt = LocalDateTime.now();
+        finishedAt = null;
+        executor.execute(this::migrate);
+        return true;
+    }
+
+    /**
+     * Whether a migration is running on any instance.
+     */
+    public boolean isRunningAnywhere() {
+        return running.get() || Boolean.TRUE.equals(redisTemplate.hasKey(LOCK_KEY));
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("shardingEnabled", shardRouter.isShardingEnabled());
+        status.put("running", running.get());
+        status.put("scanned", scanned.get());
+        status.put("moved", moved.get());
+        status.put("movedBytes", movedBytes.get());
+        status.put("failed", failed.get());
+        if (startedAt != null) {
+            status.put("startedAt", startedAt.toString());
+        }
+        if (finishedAt != null) {
+            status.put("finishedAt", finishedAt.toString());
+        }
+        return status;
+    }
+
+    private void migrate() {
+        log.info("Shard migration started");
+        try {
+            for (StorageShardRouter.Shard source : shardRouter.allShards()) {
+                Iterable<Result<Item>> objects = source.client().listObjects(ListObjectsArgs.builder()
+                        .bucket(source.bucket())
+                        .recursive(true)
+                        .build());
+                for (Result<Item> result : objects) {
+                    Item item = result.get();
+                    if (item.isDir()) {
+                        continue;
+                    }
+                    if (scanned.incrementAndGet() % RENEW_EVERY == 0) {
+                        renewLock();
+                    }
+                    StorageShardRouter.Shard target = shardRouter.shardFor(item.objectName());
+                    if (target.bucket().equals(source.bucket())) {
+                        continue;
+                    }
+                    try {
+                        if (moveObject(source, target, item.objectName(), item.size())) {
+                            moved.incrementAndGet();
+                            movedBytes.addAndGet(item.size());
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        log.error("Error moving {}/{} to {}", source.bucket(), item.objectName(), target.bucket(), e);
+                    }
+                    Thread.sleep(pauseBetweenObjects.toMillis());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Shard migration interrupted");
+        } catch (Exception e) {
+            log.error("Shard migration aborted", e);
+        } finally {
+            try {
+                redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), instanceId);
+            } catch (Exception e) {
+                log.warn("Could not release shard migration lock, it expires after {}", lockTtl, e);
+            }
+            finishedAt = LocalDateTime.now();
+            running.set(false);
+            log.info("Shard migration finished: scanned={}, moved={}, failed={}", scanned.get(), moved.get(), failed.get());
+        }
+    }
+
+    /**
+     * Removes migrated sources whose grace period is over. A member is claimed by removing it from
+     * the set, so each source is deleted by one instance only.
+     */
+    @Scheduled(fixedDelayString = "${minio.sharding.migration.delete-interval:PT1M}")
+    public void deleteMigratedSources() {
+        Set<String> due;
+        try {
+            due = redisTemplate.opsForZSet().rangeByScore(PENDING_DELETES_KEY, 0,
+                    System.currentTimeMillis(), 0, DELETE_BATCH);
+        } catch (Exception e) {
+            log.warn("Could not read pending shard migration deletes", e);
+            return;
+        }
+        if (due == null) {
+            return;
+        }
+        for (String member : due) {
+            Long claimed = redisTemplate.opsForZSet().remove(PENDING_DELETES_KEY, member);
+            if (claimed == null || claimed == 0) {
+                continue;
+            }
+            int slash = member.indexOf('/');
+            String bucketName = member.substring(0, slash);
+            String objectName = member.substring(slash + 1);
+            try {
+                if (fileRepository.existsByBucketNameAndObjectName(bucketName, objectName)) {
+                    // Pointed back at the source meanwhile, so it is the live copy again
+                    log.warn("Kept migrated source {}/{}, a row points at it again", bucketName, objectName);
+                    continue;
+                }
+                shardRouter.shard(bucketName).client().removeObject(RemoveObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .build());
+            } catch (Exception e) {
+                log.error("Error removing migrated object {}/{}, retrying later", bucketName, objectName, e);
+                scheduleSourceDelete(bucketName, objectName);
+            }
+        }
+    }
+
+    private void scheduleSourceDelete(String bucketName, String objectName) {
+        redisTemplate.opsForZSet().add(PENDING_DELETES_KEY, bucketName + "/" + objectName,
+                System.currentTimeMillis() + deleteGrace.toMillis());
+    }
+
+    private void renewLock() {
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(LOCK_KEY), instanceId,
+                String.valueOf(lockTtl.toMillis()));
+        if (!Long.valueOf(1).equals(renewed)) {
+            throw new IllegalStateException("Shard migration lock was lost");
+        }
+    }
+
+    /**
+     * Returns false if the object was left alone.
+     */
+    private boolean moveObject(StorageShardRouter.Shard source, StorageShardRouter.Shard target,
+                               String objectName, long size) throws Exception {
+        Optional<FileEntity> row = fileRepository.findByObjectName(objectName);
+        if (row.isEmpty()) {
+            return false;
+        }
+        if (row.get().getBucketName().equals(target.bucket())) {
+            // Moved by an earlier pass whose source delete did not happen
+            scheduleSourceDelete(source.bucket(), objectName);
+            return false;
+        }
+        if (!row.get().getBucketName().equals(source.bucket())) {
+            return false;
+        }
+
+        if (source.endpoint().equals(target.endpoint())) {
+            target.client().copyObject(CopyObjectArgs.builder()
+                    .bucket(target.bucket())
+                    .object(objectName)
+                    .source(CopySource.builder()
+                            .bucket(source.bucket())
+                            .object(objectName)
+                            .build())
+                    .build());
+        } else {
+            StatObjectResponse stat = source.client().statObject(StatObjectArgs.builder()
+                    .bucket(source.bucket())
+                    .object(objectName)
+                    .build());
+            try (InputStream inputStream = source.client().getObject(GetObjectArgs.builder()
+                    .bucket(source.bucket())
+                    .object(objectName)
+                    .build())) {
+                target.client().putObject(PutObjectArgs.builder()
+                        .bucket(target.bucket())
+                        .object(objectName)
+                        .stream(inputStream, size, -1)
+                        .contentType(stat.contentType())
+                        .build());
+            }
+        }
+
+        if (fileRepository.repointBucket(row.get().getId(), objectName, source.bucket(), target.bucket()) == 0) {
+            // Renamed, relocated or removed while it was copied: the copy is not referenced
+            log.info("Row for {}/{} changed during the move, removing the copy", source.bucket(), objectName);
+            target.client().removeObject(RemoveObjectArgs.builder()
+                    .bucket(target.bucket())
+                    .object(objectName)
+                    .build());
+            return false;
+        }
+        scheduleSourceDelete(source.bucket(), objectName);
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.config.MinioClientFactory;
+import com.microservices.fileservice.config.MinioConfig;
+import io.minio.MinioAsyncClient;
+import io.minio.MinioClient;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Maps object keys to buckets. With sharding enabled every key is placed in one of N buckets,
+ * each possibly on its own MinIO endpoint, chosen by rendezvous hashing: the bucket with the
+ * highest hash of (key, bucket) wins, so adding or removing a bucket only moves the keys that
+ * gain or lose it. New keys carry the low byte of the key hash as a two-character prefix
+ * ("3f-uuid_name") so they spread over the key space; keys written before sharding have no
+ * prefix and hash as-is.
+ *
+ * <p>Files rows record only the bucket name, so a bucket name may be configured on one
+ * endpoint only.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StorageShardRouter {
+
+    public record Shard(String bucket, String endpoint, MinioClient client, MinioAsyncClient asyncClient) {
+    }
+
+    private record Location(String endpoint, String bucket) {
+    }
+
+    private final MinioConfig minioConfig;
+    private final MinioClientFactory minioClientFactory;
+    private final MinioClient minioClient;
+    private final MinioAsyncClient minioAsyncClient;
+
+    @Value("${minio.sharding.enabled:false}")
+    private boolean shardingEnabled;
+
+    @Value("${minio.sharding.buckets:}")
+    private List<String> shardBuckets;
+
+    @Value("${minio.sharding.endpoints:}")
+    private List<String> shardEndpoints;
+
+    private Shard legacyShard;
+    private final List<Shard> shards = new ArrayList<>();
+    private List<String> shardBucketNames = List.of();
+    private final Map<Location, Shard> shardsByLocation = new LinkedHashMap<>();
+    private final Map<String, Shard> shardsByBucket = new HashMap<>();
+
+    @PostConstruct
+    void init() {
+        legacyShard = new Shard(minioConfig.getBucketName(), minioConfig.getEndpoint(), minioClient, minioAsyncClient);
+        register(legacyShard);
+
+        if (!shardingEnabled) {
+            return;
+        }
+        if (shardBuckets.isEmpty()) {
+            throw new IllegalStateException("minio.sharding.buckets must list at least one bucket when sharding is enabled");
+        }
+
+        Map<String, Shard> clientsByEndpoint = new HashMap<>();
+        clientsByEndpoint.put(minioConfig.getEndpoint(), legacyShard);
+        for (int i = 0; i < shardBuckets.size(); i++) {
+            String bucket = shardBuckets.get(i).trim();
+            String endpoint = i < shardEndpoints.size() && !shardEndpoints.get(i).isBlank()
+                    ? shardEndpoints.get(i).trim()
+                    : minioConfig.getEndpoint();
+            Shard clients = clientsByEndpoint.computeIfAbsent(endpoint, this::createClients);
+            Shard shard = register(new Shard(bucket, endpoint, clients.client(), clients.asyncClient()));
+            if (!shards.contains(shard)) {
+                shards.add(shard);
+            }
+        }
+        shardBucketNames = shards.stream().map(Shard::bucket).toList();
+        log.info("Storage sharding enabled across {} buckets", shards.size());
+    }
+
+    public boolean isShardingEnabled() {
+        return shardingEnabled;
+    }
+
+    public String newObjectName(String originalFilename) {
+        String baseName = UUID.randomUUID().toString() + "_" + originalFilename;
+        if (!shardingEnabled) {
+            return baseName;
+        }
+        return String.format("%02x-%s", hash(baseName) & 0xff, baseName);
+    }
+
+    /**
+     * The shard an object key belongs to under the current layout.
+     */
+    public Shard shardFor(String objectName) {
+        if (!shardingEnabled) {
+            return legacyShard;
+        }
+        return shards.get(rendezvous(objectName, shardBucketNames));
+    }
+
+    /**
+     * Index of the bucket a key is placed in among the given ones.
+     */
+    static int rendezvous(String objectName, List<String> buckets) {
+        long keyHash = hash(stripPrefix(objectName));
+        int best = 0;
+        long bestScore = 0;
+        for (int i = 0; i < buckets.size(); i++) {
+            long score = mix(keyHash ^ mix(hash(buckets.get(i))));
+            if (i == 0 || Long.compareUnsigned(score, bestScore) > 0) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    public Shard shard(String bucket) {
+        Shard shard = shardsByBucket.get(bucket);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown storage bucket: " + bucket);
+        }
+        return shard;
+    }
+
+    public Shard getLegacyShard() {
+        return legacyShard;
+    }
+
+    public Set<Shard> allShards() {
+        return new LinkedHashSet<>(shardsByLocation.values());
+    }
+
+    private Shard register(Shard shard) {
+        Shard existing = shardsByLocation.putIfAbsent(new Location(shard.endpoint(), shard.bucket()), shard);
+        if (existing != null) {
+            return existing;
+        }
+        Shard sameName = shardsByBucket.putIfAbsent(shard.bucket(), shard);
+        if (sameName != null) {
+            throw new IllegalStateException("Bucket '" + shard.bucket() + "' is configured on both "
+                    + sameName.endpoint() + " and " + shard.endpoint() + "; bucket names must be unique across endpoints");
+        }
+        return shard;
+    }
+
+    private Shard createClients(String endpoint) {
+        return new Shard(null, endpoint,
+                minioClientFactory.createClient(endpoint), minioClientFactory.createAsyncClient(endpoint));
+    }
+
+    private static String stripPrefix(String objectName) {
+        if (objectName.length() > 3 && objectName.charAt(2) == '-'
+                && Character.digit(objectName.charAt(0), 16) >= 0
+                && Character.digit(objectName.charAt(1), 16) >= 0) {
+            return objectName.substring(3);
+        }
+        return objectName;
+    }
+
+    private static long hash(String value) {
+        CRC32 crc = new CRC32();
+        crc.update(value.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    // SplitMix64 finalizer, spreads the 32-bit CRC over all 64 bits before comparing scores
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,339 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.exception.StorageQuotaExceededException;
+import com.microservices.fileservice.model.FileEntity;
+import com.microservices.fileservice.repository.FileRepository;
+import com.microservices.fileservice.util.TransactionUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps per-user and per-lesson storage usage (bytes and file count) in Redis hashes so
+ * usage lookups and quota checks do not have to scan the files table. Postgres stays the
+ * source of truth; a periodic run repairs counters that have drifted from it.
+ *
+ * <p>With quotas on, an upload first reserves its bytes; the check and the reservation are one
+ * atomic step, so concurrent uploads cannot overshoot the quota together. Reservations are kept
+ * apart from the counters, in a sorted set per user scored by expiry, so repairing a counter
+ * cannot erase them and one left behind by a crashed instance runs out after
+ * {@code storage.quota.reservation-ttl}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StorageUsageService {
+
+    private static final String USER_KEY_PREFIX = "file-usage:user:";
+    private static final String LESSON_KEY_PREFIX = "file-usage:lesson:";
+    private static final String RESERVATIONS_KEY_PREFIX = "file-usage:reservations:";
+    private static final String LOCK_KEY = "file-usage:reconcile-lock";
+    private static final String BYTES_FIELD = "bytes";
+    private static final String FILES_FIELD = "files";
+
+    /**
+     * KEYS[1] user counter, KEYS[2] optional lesson counter; ARGV bytes for the user, files,
+     * bytes for the lesson.
+     */
+    private static final RedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HINCRBY', KEYS[1], 'bytes', ARGV[1]) " +
+            "redis.call('HINCRBY', KEYS[1], 'files', ARGV[2]) " +
+            "if KEYS[2] then " +
+            "  redis.call('HINCRBY', KEYS[2], 'bytes', ARGV[3]) " +
+            "  redis.call('HINCRBY', KEYS[2], 'files', ARGV[2]) " +
+            "end " +
+            "return 1",
+            Long.class);
+
+    /**
+     * KEYS[1] user counter, KEYS[2] the user's reservations. Drops reservations expired at ARGV[4],
+     * then adds reservation ARGV[3] ("id:bytes", expiring at ARGV[5]) for ARGV[1] bytes unless
+     * usage plus reservations would pass the quota in ARGV[2]; returns -1 when rejected.
+     */
+    private static final RedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', ARGV[4]) " +
+            "local used = tonumber(redis.call('HGET', KEYS[1], 'bytes') or '0') " +
+            "for _, member in ipairs(redis.call('ZRANGE', KEYS[2], 0, -1)) do " +
+            "  used = used + tonumber(string.match(member, ':(%d+)$')) " +
+            "end " +
+            "used = used + tonumber(ARGV[1]) " +
+            "if used > tonumber(ARGV[2]) then " +
+            "  return -1 " +
+            "end " +
+            "redis.call('ZADD', KEYS[2], ARGV[5], ARGV[3]) " +
+            "redis.call('PEXPIREAT', KEYS[2], ARGV[5]) " +
+            "return used",
+            Long.class);
+
+    /**
+     * Sets the counter to ARGV[3..4] (removing the fields when both are zero), but only if it
+     * still holds the ARGV[1..2] snapshot taken before the database was read.
+     */
+    private static final RedisScript<Long> REPAIR_SCRIPT = new DefaultRedisScript<>(
+            "local bytes = tonumber(redis.call('HGET', KEYS[1], 'bytes') or '0') " +
+            "local files = tonumber(redis.call('HGET', KEYS[1], 'files') or '0') " +
+            "if bytes ~= tonumber(ARGV[1]) or files ~= tonumber(ARGV[2]) then " +
+            "  return 0 " +
+            "end " +
+            "if tonumber(ARGV[3]) == 0 and tonumber(ARGV[4]) == 0 then " +
+            "  redis.call('HDEL', KEYS[1], 'bytes', 'files') " +
+            "else " +
+            "  redis.call('HSET', KEYS[1], 'bytes', ARGV[3], 'files', ARGV[4]) " +
+            "end " +
+            "return 1",
+            Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0",
+            Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final FileRepository fileRepository;
+
+    @Value("${storage.quota.enabled:false}")
+    private boolean quotaEnabled;
+
+    @Value("${storage.quota.user-bytes:10GB}")
+    private DataSize userQuota;
+
+    @Value("${storage.quota.reservation-ttl:PT2H}")
+    private Duration reservationTtl;
+
+    @Value("${storage.usage.reconcile-lock-ttl:PT10M}")
+    private Duration lockTtl;
+
+    /**
+     * Reserves quota for an upload. Closing the reservation gives the bytes back unless
+     * {@link #recordAdded(FileEntity, Reservation)} has taken it over.
+     */
+    public Reservation reserve(String userId, long incomingBytes) {
+        if (!quotaEnabled) {
+            return new Reservation(userId, null);
+        }
+        String member = UUID.randomUUID() + ":" + incomingBytes;
+        long now = System.currentTimeMillis();
+        Long used;
+        try {
+            used = redisTemplate.execute(RESERVE_SCRIPT,
+                    List.of(USER_KEY_PREFIX + userId, RESERVATIONS_KEY_PREFIX + userId),
+                    String.valueOf(incomingBytes), String.valueOf(userQuota.toBytes()), member,
+                    String.valueOf(now), String.valueOf(now + reservationTtl.toMillis()));
+        } catch (Exception e) {
+            log.warn("Could not reserve storage quota for user: {}, skipping quota check", userId, e);
+            return new Reservation(userId, null);
+        }
+        if (used != null && used < 0) {
+            long usedBytes = getUserUsage(userId).get(BYTES_FIELD);
+            throw new StorageQuotaExceededException("Storage quota of " + userQuota.toMegabytes()
+                    + "MB exceeded: " + usedBytes + " bytes used, " + incomingBytes + " bytes requested");
+        }
+        return new Reservation(userId, member);
+    }
+
+    public void recordAdded(FileEntity fileEntity) {
+        recordAdded(fileEntity, null);
+    }
+
+    /**
+     * Counts a new file once the transaction commits and then drops its reservation, which is
+     * also dropped if the transaction rolls back. Until then the bytes may be counted twice,
+     * which only errs on the strict side.
+     */
+    public void recordAdded(FileEntity fileEntity, Reservation reservation) {
+        boolean takenOver = reservation != null && reservation.takeOver();
+        TransactionUtil.afterCompletion(committed -> {
+            if (committed) {
+                increment(fileEntity, fileEntity.getFileSize(), 1, fileEntity.getFileSize());
+            }
+            if (takenOver) {
+                reservation.release();
+            }
+        });
+    }
+
+    /**
+     * Counts a change in a stored file's size, e.g. after it was rewritten, once the transaction
+     * commits.
+     */
+    public void recordResized(FileEntity fileEntity, long sizeDelta) {
+        if (sizeDelta == 0) {
+            return;
+        }
+        TransactionUtil.afterCommit(() -> increment(fileEntity, sizeDelta, 0, sizeDelta));
+    }
+
+    public void recordRemoved(FileEntity fileEntity) {
+        TransactionUtil.afterCommit(() ->
+                increment(fileEntity, -fileEntity.getFileSize(), -1, -fileEntity.getFileSize()));
+    }
+
+    public Map<String, Long> getUserUsage(String userId) {
+        return readUsage(USER_KEY_PREFIX + userId);
+    }
+
+    public Map<String, Long> getLessonUsage(Long lessonId) {
+        return readUsage(LESSON_KEY_PREFIX + lessonId);
+    }
+
+    /**
+     * Repairs counters from the files table. Every counter is snapshotted before the sums are read
+     * and only overwritten if it still holds that snapshot, so uploads and deletes counted while
+     * the sums were being read are not lost; counters that moved are left for the next run.
+     */
+    @Scheduled(fixedDelayString = "${storage.usage.reconcile-interval:PT1H}",
+               initialDelayString = "${storage.usage.reconcile-initial-delay:PT1M}")
+    public void reconcile() {
+        String token = UUID.randomUUID().toString();
+        Boolean locked = null;
+        try {
+            locked = redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, lockTtl);
+            if (!Boolean.TRUE.equals(locked)) {
+                return;
+            }
+
+            Map<String, long[]> snapshot = new HashMap<>();
+            snapshot(USER_KEY_PREFIX, snapshot);
+            snapshot(LESSON_KEY_PREFIX, snapshot);
+
+            Map<String, long[]> actual = new HashMap<>();
+            for (Object[] row : fileRepository.sumUsageByUserId(FileEntity.FileStatus.FAILED)) {
+                actual.put(USER_KEY_PREFIX + row[0], new long[]{toLong(row[1]), toLong(row[2])});
+            }
+            for (Object[] row : fileRepository.sumUsageByLessonId(FileEntity.FileStatus.FAILED)) {
+                actual.put(LESSON_KEY_PREFIX + row[0], new long[]{toLong(row[1]), toLong(row[2])});
+            }
+
+            Set<String> keys = new HashSet<>(snapshot.keySet());
+            keys.addAll(actual.keySet());
+            int repaired = 0;
+            int skipped = 0;
+            for (String key : keys) {
+                long[] expected = snapshot.getOrDefault(key, new long[2]);
+                long[] target = actual.getOrDefault(key, new long[2]);
+                if (expected[0] == target[0] && expected[1] == target[1]) {
+                    continue;
+                }
+                Long result = redisTemplate.execute(REPAIR_SCRIPT, List.of(key),
+                        String.valueOf(expected[0]), String.valueOf(expected[1]),
+                        String.valueOf(target[0]), String.valueOf(target[1]));
+                if (result != null && result == 1) {
+                    repaired++;
+                } else {
+                    skipped++;
+                }
+            }
+            log.info("Storage usage reconciled: {} counters checked, {} repaired, {} changed meanwhile and skipped",
+                    keys.size(), repaired, skipped);
+        } catch (Exception e) {
+            log.error("Error reconciling storage usage counters", e);
+        } finally {
+            if (Boolean.TRUE.equals(locked)) {
+                try {
+                    redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), token);
+                } catch (Exception e) {
+                    log.warn("Could not release usage reconcile lock, it expires after {}", lockTtl, e);
+                }
+            }
+        }
+    }
+
+    private void increment(FileEntity fileEntity, long userBytes, int files, long lessonBytes) {
+        List<String> keys = new ArrayList<>();
+        keys.add(USER_KEY_PREFIX + fileEntity.getUserId());
+        if (fileEntity.getLessonId() != null) {
+            keys.add(LESSON_KEY_PREFIX + fileEntity.getLessonId());
+        }
+        try {
+            redisTemplate.execute(INCREMENT_SCRIPT, keys,
+                    String.valueOf(userBytes), String.valueOf(files), String.valueOf(lessonBytes));
+        } catch (Exception e) {
+            // The next reconciliation run repairs the counters
+            log.warn("Could not update storage usage for fileId: {}", fileEntity.getId(), e);
+        }
+    }
+
+    private Map<String, Long> readUsage(String key) {
+        List<Object> values = redisTemplate.opsForHash().multiGet(key, List.of(BYTES_FIELD, FILES_FIELD));
+        return Map.of(
+            BYTES_FIELD, parse(values.get(0)),
+            FILES_FIELD, parse(values.get(1))
+        );
+    }
+
+    private void snapshot(String prefix, Map<String, long[]> snapshot) {
+        List<String> keys = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            cursor.forEachRemaining(keys::add);
+        }
+        for (String key : keys) {
+            Map<String, Long> usage = readUsage(key);
+            snapshot.put(key, new long[]{usage.get(BYTES_FIELD), usage.get(FILES_FIELD)});
+        }
+    }
+
+    private long toLong(Object value) {
+        return value != null ? ((Number) value).longValue() : 0L;
+    }
+
+    private long parse(Object value) {
+        return value != null ? Long.parseLong(value.toString()) : 0L;
+    }
+
+    /**
+     * Quota held for an upload in progress.
+     */
+    public class Reservation implements AutoCloseable {
+
+        private final String userId;
+        // Null when nothing was reserved
+        private final String member;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Reservation(String userId, String member) {
+            this.userId = userId;
+            this.member = member;
+        }
+
+        private boolean takeOver() {
+            return member != null && settled.compareAndSet(false, true);
+        }
+
+        @Override
+        public void close() {
+            if (member != null && settled.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+        private void release() {
+            try {
+                redisTemplate.opsForZSet().remove(RESERVATIONS_KEY_PREFIX + userId, member);
+            } catch (Exception e) {
+                log.warn("Could not release reserved storage quota for user: {}, it expires after {}",
+                        userId, reservationTtl, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.microservices.fileservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks uploads currently being received against an in-flight byte budget and a
+ * concurrency budget. Callers that do not fit wait up to the queue timeout and are
+ * rejected afterwards. Async uploads keep their reservation until they are stored.
+ */
+@Service
+@Slf4j
+public class UploadAdmissionService {
+
+    /**
+     * Request attribute holding the {@link Permit} the admission filter took for the request.
+     */
+    public static final String PERMIT_ATTRIBUTE = UploadAdmissionService.class.getName() + ".permit";
+
+    @Value("${upload.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${upload.admission.max-in-flight-bytes:8GB}")
+    private DataSize maxInFlightBytes;
+
+    @Value("${upload.admission.max-concurrent-uploads:16}")
+    private int maxConcurrentUploads;
+
+    @Value("${upload.admission.queue-timeout:2s}")
+    private Duration queueTimeout;
+
+    @Value("${upload.admission.retry-after:10s}")
+    private Duration retryAfter;
+
+    @Value("${spring.servlet.multipart.max-request-size:2GB}")
+    private DataSize unknownLengthBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private volatile long inFlightBytes;
+    private volatile int inFlightUploads;
+
+    private final Counter admittedCounter;
+    private final Counter queuedCounter;
+    private final Counter rejectedCounter;
+
+    public UploadAdmissionService(MeterRegistry meterRegistry) {
+        this.admittedCounter = Counter.builder("file.upload.admission")
+                .tag("outcome", "admitted")
+                .register(meterRegistry);
+        this.queuedCounter = Counter.builder("file.upload.admission")
+                .tag("outcome", "queued")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("file.upload.admission")
+                .tag("outcome", "rejected")
+                .register(meterRegistry);
+        Gauge.builder("file.upload.inflight.bytes", this, UploadAdmissionService::getInFlightBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("file.upload.inflight.count", this, UploadAdmissionService::getInFlightUploads)
+                .register(meterRegistry);
+    }
+
+    public Optional<Permit> tryAdmit(long contentLength) throws InterruptedException {
+        if (!enabled) {
+            return Optional.of(new Permit(0));
+        }
+        long bytes = contentLength >= 0 ? contentLength : unknownLengthBytes.toBytes();
+        long deadline = System.nanoTime() + queueTimeout.toNanos();
+        boolean queued = false;
+
+        lock.lock();
+        try {
+            while (!fits(bytes)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejectedCounter.increment();
+                    log.warn("Upload of {} bytes rejected: {} uploads / {} bytes in flight",
+                            bytes, inFlightUploads, inFlightBytes);
+                    return Optional.empty();
+                }
+                queued = true;
+                released.await(remaining, TimeUnit.NANOSECONDS);
+            }
+            inFlightBytes += bytes;
+            inFlightUploads++;
+        } finally {
+            lock.unlock();
+        }
+
+        if (queued) {
+            queuedCounter.increment();
+        }
+        admittedCounter.increment();
+        return Optional.of(new Permit(bytes));
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    public int getInFlightUploads() {
+        return inFlightUploads;
+    }
+
+    private boolean fits(long bytes) {
+        if (inFlightUploads >= maxConcurrentUploads) {
+            return false;
+        }
+        // A single upload larger than the whole budget is still let through when nothing else is running
+        return inFlightUploads == 0 || inFlightBytes + bytes <= maxInFlightBytes.toBytes();
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            inFlightBytes -= bytes;
+            inFlightUploads--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+
+        private final long bytes;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Hands the reservation over to work that outlives the request. This permit no longer
+         * releases anything; the returned one has to be closed when that work is done.
+         */
+        public Permit detach() {
+            if (!closed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Permit has already been released");
+            }
+            return new Permit(bytes);
+        }
+
+        @Override
+        public void close() {
+            if (enabled && closed.compareAndSet(false, true)) {
+                release(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.microservices.fileservice.service;
+
+import com.microservices.fileservice.util.ByteRange;
+import com.microservices.fileservice.util.ThreadFactories;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-ahead for video range requests. Players fetch a video as a run of small consecutive
+ * ranges; once a client reads an object sequentially the following ranges are fetched in the
+ * background so the next request is served from memory instead of paying a storage round trip.
+ *
+ * <p>The read-ahead depth per stream doubles on every hit up to a limit and drops back to zero
+ * on a seek, which discards whatever was prefetched. All buffers share one node-wide memory
+ * budget, held until the response reading a buffer is closed; a prefetch that does not fit is
+ * simply not issued. Anonymous requests get no read-ahead.
+ *
+ * <p>Read state is kept per object version (its ETag) and every read is pinned to that ETag, so
+ * buffers of an object that was rewritten under the same key are never served for the new one.
+ */
+@Service
+@Slf4j
+public class VideoPrefetchService {
+
+    private final MinioService minioService;
+
+    @Value("${streaming.prefetch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${streaming.prefetch.max-range:4MB}")
+    private DataSize maxRange;
+
+    @Value("${streaming.prefetch.max-depth:4}")
+    private int maxDepth;
+
+    @Value("${streaming.prefetch.max-buffer:256MB}")
+    private DataSize maxBuffer;
+
+    @Value("${streaming.prefetch.idle-timeout:PT30S}")
+    private Duration idleTimeout;
+
+    @Value("${streaming.prefetch.wait-timeout:PT2S}")
+    private Duration waitTimeout;
+
+    private final int maxStreams;
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final Map<String, ReadState> states;
+    private final ExecutorService executor;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter prefetchedBytesCounter;
+    private final Counter wastedBytesCounter;
+
+    public VideoPrefetchService(MinioService minioService,
+                                MeterRegistry meterRegistry,
+                                @Value("${streaming.prefetch.max-streams:1024}") int maxStreams,
+                                @Value("${streaming.prefetch.threads:4}") int threads,
+                                @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.minioService = minioService;
+        this.maxStreams = maxStreams;
+        this.states = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ReadState> eldest) {
+                if (size() > VideoPrefetchService.this.maxStreams) {
+                    discardAll(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.executor = Executors.newFixedThreadPool(threads, ThreadFactories.named("video-prefetch", virtualThreads));
+        this.hitCounter = Counter.builder("file.prefetch.requests")
+                .tag("result", "hit")
+                .description("Video range requests served from read-ahead buffers")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("file.prefetch.requests")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.prefetchedBytesCounter = Counter.builder("file.prefetch.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.wastedBytesCounter = Counter.builder("file.prefetch.wasted.bytes")
+                .description("Prefetched bytes dropped without being served")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("file.prefetch.buffered.bytes", bufferedBytes, AtomicLong::get)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("file.prefetch.streams", this, service -> service.streamCount())
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Opens a range of the object version with the given ETag, from a read-ahead buffer when one
+     * covers it.
+     */
+    public InputStream openRange(String clientKey, String bucketName, String objectName, String etag,
+                                 ByteRange range) throws Exception {
+        Hit hit = claim(clientKey, bucketName, objectName, etag, range);
+        if (hit != null) {
+            try {
+                return hit.open(hit.segment.data().get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS));
+            } catch (ExecutionException e) {
+                log.debug("Prefetch of {}/{} failed, reading directly", bucketName, objectName, e.getCause());
+                hit.releaseWhenDone();
+            } catch (TimeoutException e) {
+                log.debug("Prefetch of {}/{} is late, reading directly", bucketName, objectName);
+                hit.releaseWhenDone();
+            } catch (InterruptedException e) {
+                hit.releaseWhenDone();
+                throw e;
+            }
+        }
+        return minioService.downloadFile(bucketName, objectName, range.start(), range.length(), etag);
+    }
+
+    public CompletableFuture<InputStream> openRangeAsync(String clientKey, String bucketName, String objectName,
+                                                        String etag, ByteRange range) {
+        Hit hit = claim(clientKey, bucketName, objectName, etag, range);
+        if (hit == null) {
+            return downloadAsync(bucketName, objectName, etag, range.start(), range.length());
+        }
+        return hit.segment.data().copy()
+                .orTimeout(waitTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((bytes, e) -> {
+                    if (bytes != null) {
+                        return CompletableFuture.completedFuture(hit.open(bytes));
+                    }
+                    hit.releaseWhenDone();
+                    return downloadAsync(bucketName, objectName, etag, range.start(), range.length());
+                })
+                .thenCompose(future -> future);
+    }
+
+    @Scheduled(fixedDelayString = "${streaming.prefetch.sweep-interval:PT10S}")
+    public void evictIdle() {
+        long cutoff = System.nanoTime() - idleTimeout.toNanos();
+        List<ReadState> idle = new ArrayList<>();
+        synchronized (states) {
+            Iterator<ReadState> iterator = states.values().iterator();
+            while (iterator.hasNext()) {
+                ReadState state = iterator.next();
+                if (state.lastAccess - cutoff < 0) {
+                    idle.add(state);
+                    iterator.remove();
+                }
+            }
+        }
+        idle.forEach(this::discardAll);
+    }
+
+    /**
+     * Drops the read-ahead buffered on this node for an object, e.g. after it was rewritten.
+     */
+    public void invalidate(String bucketName, String objectName) {
+        List<ReadState> stale = new ArrayList<>();
+        synchronized (states) {
+            Iterator<ReadState> iterator = states.values().iterator();
+            while (iterator.hasNext()) {
+                ReadState state = iterator.next();
+                if (state.bucketName.equals(bucketName) && state.objectName.equals(objectName)) {
+                    stale.add(state);
+                    iterator.remove();
+                }
+            }
+        }
+        stale.forEach(this::discardAll);
+    }
+
+    /**
+     * Records the request against the client's read state, takes the buffer covering it if
+     * there is one, and tops up read-ahead when the access is sequential.
+     */
+    private Hit claim(String clientKey, String bucketName, String objectName, String etag, ByteRange range) {
+        if (!enabled || clientKey == null || etag == null || range.length() > maxRange.toBytes()) {
+            return null;
+        }
+        String stateKey = clientKey + '\n' + bucketName + '/' + objectName + '\n' + etag;
+        ReadState state;
+        synchronized (states) {
+            state = states.computeIfAbsent(stateKey, key -> new ReadState(bucketName, objectName));
+        }
+
+        long start = range.start();
+        long end = start + range.length();
+        synchronized (state) {
+            if (state.closed) {
+                return null;
+            }
+            state.lastAccess = System.nanoTime();
+            boolean sequential = start == state.nextOffset;
+            Hit hit = null;
+            Iterator<Segment> iterator = state.segments.iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                if (hit == null && segment.offset() <= start && end <= segment.end()) {
+                    // The buffer stays reserved until the response reading it is closed
+                    hit = new Hit(segment, (int) (start - segment.offset()), (int) range.length());
+                    iterator.remove();
+                    wastedBytesCounter.increment(segment.length() - range.length());
+                } else if (!sequential || segment.end() <= start) {
+                    // A seek, or a segment the reader has already passed
+                    iterator.remove();
+                    release(segment, segment.length());
+                }
+            }
+
+            if (hit != null) {
+                hitCounter.increment();
+                state.depth = Math.min(maxDepth, Math.max(1, state.depth * 2));
+            } else {
+                missCounter.increment();
+                state.depth = sequential ? Math.max(1, state.depth / 2) : 0;
+            }
+            state.nextOffset = end;
+
+            long prefetchOffset = state.segments.isEmpty() ? end : state.segments.peekLast().end();
+            while (state.segments.size() < state.depth && prefetchOffset < range.fileSize()) {
+                long length = Math.min(range.length(), range.fileSize() - prefetchOffset);
+                if (!reserve(length)) {
+                    break;
+                }
+                state.segments.addLast(new Segment(prefetchOffset, length,
+                        fetch(bucketName, objectName, etag, prefetchOffset, length)));
+                prefetchOffset += length;
+            }
+            return hit;
+        }
+    }
+
+    private CompletableFuture<byte[]> fetch(String bucketName, String objectName, String etag,
+                                           long offset, long length) {
+        return minioService.downloadFileAsync(bucketName, objectName, offset, length, etag)
+                .thenApplyAsync(response -> {
+                    try (response) {
+                        byte[] bytes = response.readAllBytes();
+                        if (bytes.length != length) {
+                            throw new IOException("Short prefetch read: " + bytes.length + " of " + length + " bytes");
+                        }
+                        prefetchedBytesCounter.increment(bytes.length);
+                        return bytes;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+    }
+
+    private CompletableFuture<InputStream> downloadAsync(String bucketName, String objectName, String etag,
+                                                         long offset, long length) {
+        return minioService.downloadFileAsync(bucketName, objectName, offset, length, etag)
+                .thenApply(response -> response);
+    }
+
+    private boolean reserve(long bytes) {
+        long limit = maxBuffer.toBytes();
+        while (true) {
+            long current = bufferedBytes.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+            if (bufferedBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(Segment segment, long wastedBytes) {
+        bufferedBytes.addAndGet(-segment.length());
+        if (wastedBytes > 0) {
+            wastedBytesCounter.increment(wastedBytes);
+        }
+    }
+
+    private void discardAll(ReadState state) {
+        synchronized (state) {
+            for (Segment segment : state.segments) {
+                release(segment, segment.length());
+            }
+            state.segments.clear();
+            state.closed = true;
+        }
+    }
+
+    private int streamCount() {
+        synchronized (states) {
+            return states.size();
+        }
+    }
+
+    private static class ReadState {
+        private final String bucketName;
+        private final String objectName;
+        private final Deque<Segment> segments = new ArrayDeque<>();
+        private long nextOffset = -1;
+        private int depth;
+        private boolean closed;
+        private volatile long lastAccess = System.nanoTime();
+
+        private ReadState(String bucketName, String objectName) {
+            this.bucketName = bucketName;
+            this.objectName = objectName;
+        }
+    }
+
+    private record Segment(long offset, long length, CompletableFuture<byte[]> data) {
+        long end() {
+            return offset + length;
+        }
+    }
+
+    /**
+     * A claimed buffer. Its bytes count against the budget until the stream opened on it is
+     * closed, or until the fetch finishes when the request fell back to a direct read.
+     */
+    private final class Hit {
+
+        private final Segment segment;
+        private final int sliceOffset;
+        private final int sliceLength;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Hit(Segment segment, int sliceOffset, int sliceLength) {
+            this.segment = segment;
+            this.sliceOffset = sliceOffset;
+            this.sliceLength = sliceLength;
+        }
+
+        InputStream open(byte[] bytes) {
+            return new ByteArrayInputStream(bytes, sliceOffset, sliceLength) {
+                @Override
+                public void close() {
+                    release();
+                }
+            };
+        }
+
+        void releaseWhenDone() {
+            segment.data().whenComplete((bytes, e) -> release());
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                bufferedBytes.addAndGet(-segment.length());
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.microservices.fileservice.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public record ByteRange(long start, long end, long fileSize) {
+
+    private static final Pattern SINGLE_RANGE = Pattern.compile("(\\d*)-(\\d*)");
+
+    /**
+     * Parses a single byte range ("bytes=start-end", "bytes=start-" or the suffix form
+     * "bytes=-length"). Returns null when there is no usable byte range, in which case the whole
+     * object is served: RFC 9110 lets a server ignore Range, so multi-range and malformed headers
+     * get a plain 200 rather than an error. An end past the last byte is clamped to it.
+     */
+    public static ByteRange parse(String rangeHeader, long fileSize) {
+        if (rangeHeader == null || !rangeHeader.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String spec = rangeHeader.substring(6).trim();
+        Matcher matcher = SINGLE_RANGE.matcher(spec);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+        try {
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(last);
+                // A zero-length suffix is unsatisfiable, which start > end reports
+                return new ByteRange(Math.max(0, fileSize - suffixLength), fileSize - 1, fileSize);
+            }
+            long rangeStart = Long.parseLong(first);
+            if (last.isEmpty()) {
+                return new ByteRange(rangeStart, fileSize - 1, fileSize);
+            }
+            long rangeEnd = Long.parseLong(last);
+            if (rangeEnd < rangeStart) {
+                return null;
+            }
+            return new ByteRange(rangeStart, Math.min(rangeEnd, fileSize - 1), fileSize);
+        } catch (NumberFormatException e) {
+            // More digits than a long holds
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #parse(String, long)}, but honours If-Range: the range only applies while the
+     * object still has the entity tag the client is resuming, otherwise the whole current object
+     * is served. Responses carry only a strong ETag, so a date or a weak tag never matches.
+     */
+    public static ByteRange parse(String rangeHeader, String ifRange, String etag, long fileSize) {
+        if (ifRange != null && !ifRange.trim().equals(etag)) {
+            return null;
+        }
+        return parse(rangeHeader, fileSize);
+    }
+
+    public boolean isSatisfiable() {
+        return start >= 0 && end < fileSize && start <= end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange() {
+        return String.format("bytes %d-%d/%d", start, end, fileSize);
+    }
+
+    public String unsatisfiedContentRange() {
+        return "bytes */" + fileSize;
+    }
+}
@@ -0,0 +1,18 @@
+package com.microservices.fileservice.util;
+
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Object checksums are CRC32C, stored as 8 lowercase hex digits.
+ */
+public class ChecksumUtil {
+
+    public static Checksum newChecksum() {
+        return new CRC32C();
+    }
+
+    public static String toHex(Checksum checksum) {
+        return String.format("%08x", checksum.getValue());
+    }
+}
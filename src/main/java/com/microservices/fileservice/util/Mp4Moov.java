@@ -0,0 +1,242 @@
+package com.microservices.fileservice.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory 'moov' box of an MP4 file, parsed just deep enough to reach the chunk offset
+ * tables (stco/co64) of every track so they can be rewritten when the media data moves.
+ * Every other box is kept as raw bytes.
+ */
+public class Mp4Moov {
+
+    public static final String MOOV = "moov";
+
+    private static final Set<String> CONTAINERS = Set.of("moov", "trak", "mdia", "minf", "stbl");
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    /**
+     * Header of a top-level box: where it starts, its total size and the size of the header.
+     */
+    public record BoxHeader(String type, long offset, long size, int headerSize) {
+
+        public long end() {
+            return offset + size;
+        }
+
+        /**
+         * Parses a box header from up to 16 bytes read at {@code offset}. A size of 0 means the
+         * box runs to the end of the file.
+         */
+        public static BoxHeader parse(byte[] bytes, long offset, long fileSize) throws IOException {
+            if (bytes.length < 8) {
+                throw new IOException("Truncated box header at offset " + offset);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long size = Integer.toUnsignedLong(buffer.getInt());
+            String type = new String(bytes, 4, 4, StandardCharsets.ISO_8859_1);
+            int headerSize = 8;
+            if (size == 1) {
+                if (bytes.length < 16) {
+                    throw new IOException("Truncated box header at offset " + offset);
+                }
+                size = buffer.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - offset;
+            }
+            if (size < headerSize || offset + size > fileSize) {
+                throw new IOException("Invalid size " + size + " for '" + type + "' box at offset " + offset);
+            }
+            return new BoxHeader(type, offset, size, headerSize);
+        }
+    }
+
+    private final Box root;
+
+    private Mp4Moov(Box root) {
+        this.root = root;
+    }
+
+    public static Mp4Moov parse(byte[] moov) throws IOException {
+        Box root = parseBox(ByteBuffer.wrap(moov));
+        if (!MOOV.equals(root.type)) {
+            throw new IOException("Not a moov box: " + root.type);
+        }
+        return new Mp4Moov(root);
+    }
+
+    /**
+     * Returns the moov box to be written at {@code insertOffset}, with every chunk offset
+     * adjusted for the new layout: data between {@code insertOffset} and the old moov moves
+     * down by the size of the new moov, data after the old moov by the difference in size.
+     * 32-bit tables are widened to co64 when a shifted offset no longer fits.
+     */
+    public byte[] relocate(long insertOffset, long oldMoovOffset, long oldMoovSize) throws IOException {
+        boolean widen = false;
+        while (true) {
+            long newSize = root.size(widen);
+            boolean fits = true;
+            for (Box table : root.chunkOffsetTables()) {
+                for (int i = 0; i < table.offsets.length; i++) {
+                    long shifted = shift(table.offsets[i], newSize, insertOffset, oldMoovOffset, oldMoovSize);
+                    if (shifted > MAX_UINT32 && "stco".equals(table.type) && !widen) {
+                        fits = false;
+                    }
+                }
+            }
+            if (!fits) {
+                widen = true;
+                continue;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) newSize);
+            DataOutputStream out = new DataOutputStream(bytes);
+            root.write(out, widen, newSize, insertOffset, oldMoovOffset, oldMoovSize);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    private static long shift(long offset, long newMoovSize, long insertOffset, long oldMoovOffset, long oldMoovSize) {
+        if (offset < insertOffset) {
+            return offset;
+        }
+        if (offset < oldMoovOffset) {
+            return offset + newMoovSize;
+        }
+        return offset + newMoovSize - oldMoovSize;
+    }
+
+    private static Box parseBox(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < 8) {
+            throw new IOException("Truncated box inside moov");
+        }
+        long size = Integer.toUnsignedLong(buffer.getInt());
+        byte[] typeBytes = new byte[4];
+        buffer.get(typeBytes);
+        String type = new String(typeBytes, StandardCharsets.ISO_8859_1);
+        if (size == 1) {
+            size = buffer.getLong();
+        } else if (size == 0) {
+            size = buffer.limit() - start;
+        }
+        int headerSize = buffer.position() - start;
+        if (size < headerSize || start + size > buffer.limit()) {
+            throw new IOException("Invalid size " + size + " for '" + type + "' box inside moov");
+        }
+        int end = (int) (start + size);
+
+        Box box = new Box(type);
+        if (CONTAINERS.contains(type)) {
+            box.children = new ArrayList<>();
+            ByteBuffer content = buffer.slice(buffer.position(), end - buffer.position());
+            while (content.hasRemaining()) {
+                box.children.add(parseBox(content));
+            }
+        } else if ("stco".equals(type) || "co64".equals(type)) {
+            box.versionAndFlags = buffer.getInt();
+            int count = buffer.getInt();
+            int entrySize = "stco".equals(type) ? 4 : 8;
+            if ((long) count * entrySize > end - buffer.position()) {
+                throw new IOException("Invalid entry count " + count + " in '" + type + "'");
+            }
+            box.offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                box.offsets[i] = entrySize == 4 ? Integer.toUnsignedLong(buffer.getInt()) : buffer.getLong();
+            }
+        } else {
+            box.payload = new byte[end - buffer.position()];
+            buffer.get(box.payload);
+        }
+        buffer.position(end);
+        return box;
+    }
+
+    private static class Box {
+
+        private final String type;
+        private List<Box> children;
+        private byte[] payload;
+        private int versionAndFlags;
+        private long[] offsets;
+
+        Box(String type) {
+            this.type = type;
+        }
+
+        List<Box> chunkOffsetTables() {
+            List<Box> tables = new ArrayList<>();
+            collectTables(tables);
+            return tables;
+        }
+
+        private void collectTables(List<Box> tables) {
+            if (offsets != null) {
+                tables.add(this);
+            } else if (children != null) {
+                children.forEach(child -> child.collectTables(tables));
+            }
+        }
+
+        private String outputType(boolean widen) {
+            return offsets != null && widen ? "co64" : type;
+        }
+
+        long size(boolean widen) {
+            long contentSize;
+            if (children != null) {
+                contentSize = 0;
+                for (Box child : children) {
+                    contentSize += child.size(widen);
+                }
+            } else if (offsets != null) {
+                contentSize = 8 + (long) offsets.length * ("co64".equals(outputType(widen)) ? 8 : 4);
+            } else {
+                contentSize = payload.length;
+            }
+            return contentSize + 8 > MAX_UINT32 ? contentSize + 16 : contentSize + 8;
+        }
+
+        void write(DataOutputStream out, boolean widen, long newMoovSize, long insertOffset,
+                   long oldMoovOffset, long oldMoovSize) throws IOException {
+            long size = size(widen);
+            String outputType = outputType(widen);
+            if (size > MAX_UINT32) {
+                out.writeInt(1);
+                out.write(outputType.getBytes(StandardCharsets.ISO_8859_1));
+                out.writeLong(size);
+            } else {
+                out.writeInt((int) size);
+                out.write(outputType.getBytes(StandardCharsets.ISO_8859_1));
+            }
+
+            if (children != null) {
+                for (Box child : children) {
+                    child.write(out, widen, newMoovSize, insertOffset, oldMoovOffset, oldMoovSize);
+                }
+            } else if (offsets != null) {
+                out.writeInt(versionAndFlags);
+                out.writeInt(offsets.length);
+                boolean co64 = "co64".equals(outputType);
+                for (long offset : offsets) {
+                    long shifted = shift(offset, newMoovSize, insertOffset, oldMoovOffset, oldMoovSize);
+                    if (co64) {
+                        out.writeLong(shifted);
+                    } else {
+                        out.writeInt((int) shifted);
+                    }
+                }
+            } else {
+                out.write(payload);
+            }
+        }
+    }
+}
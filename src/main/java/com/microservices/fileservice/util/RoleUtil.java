@@ -103,6 +103,10 @@ public class RoleUtil {
     public static boolean canView(Jwt jwt) {
         return isAdmin(jwt) || isTeacher(jwt) || isClient(jwt);
     }
+
+    public static boolean canDownload(Jwt jwt, String ownerId) {
+        return isAdmin(jwt) || ownerId.equals(jwt.getSubject());
+    }
 }
 
 
@@ -0,0 +1,98 @@
+package com.microservices.fileservice.util;
+
+import com.microservices.fileservice.model.FileEntity;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+@Slf4j
+public class StreamingUtil {
+
+    /**
+     * Identifies the viewer of a stream: the user and the address they stream to, so two devices
+     * of one user keep separate read state. Null for anonymous viewers, whose address alone may
+     * be shared by many players behind one NAT.
+     */
+    public static String clientKey(Jwt jwt, HttpServletRequest request) {
+        return jwt != null ? jwt.getSubject() + '@' + request.getRemoteAddr() : null;
+    }
+
+    /**
+     * The ETag header value for a storage ETag, which MinIO reports without quotes.
+     */
+    public static String etag(String storageETag) {
+        return storageETag != null ? '"' + storageETag + '"' : null;
+    }
+
+    public static String resolveDownloadContentType(FileEntity file) {
+        String contentType = file.getContentType();
+        if (contentType != null && !contentType.isEmpty()) {
+            return contentType;
+        }
+        String fileName = file.getOriginalFileName().toLowerCase();
+        if (fileName.endsWith(".pdf")) {
+            return "application/pdf";
+        } else if (fileName.endsWith(".doc")) {
+            return "application/msword";
+        } else if (fileName.endsWith(".docx")) {
+            return "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+        } else if (fileName.endsWith(".xls")) {
+            return "application/vnd.ms-excel";
+        } else if (fileName.endsWith(".xlsx")) {
+            return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+        } else if (fileName.endsWith(".zip")) {
+            return "application/zip";
+        } else if (fileName.endsWith(".txt")) {
+            return "text/plain";
+        } else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (fileName.endsWith(".png")) {
+            return "image/png";
+        }
+        return "application/octet-stream";
+    }
+
+    public static String resolveVideoContentType(String contentType, String objectName) {
+        if (contentType != null && !contentType.isEmpty()) {
+            return contentType;
+        }
+        String fileName = objectName.toLowerCase();
+        if (fileName.endsWith(".webm")) {
+            return "video/webm";
+        } else if (fileName.endsWith(".ogg")) {
+            return "video/ogg";
+        }
+        return "video/mp4";
+    }
+
+    public static HttpHeaders downloadHeaders(FileEntity file) {
+        String encodedFileName = URLEncoder.encode(file.getOriginalFileName(), StandardCharsets.UTF_8)
+                .replace("+", "%20");
+        
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, 
+                "attachment; filename=\"" + file.getOriginalFileName() + "\"; filename*=UTF-8''" + encodedFileName);
+        headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.getFileSize()));
+        headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
+        headers.add(HttpHeaders.PRAGMA, "no-cache");
+        headers.add(HttpHeaders.EXPIRES, "0");
+        return headers;
+    }
+
+    public static String decodeObjectName(String objectName) {
+        try {
+            String testDecode = URLDecoder.decode(objectName, StandardCharsets.UTF_8);
+            if (!testDecode.equals(objectName) && !testDecode.contains("%")) {
+                return testDecode;
+            }
+        } catch (Exception e) {
+            log.debug("Could not decode objectName, using original: {}", objectName);
+        }
+        return objectName;
+    }
+}
@@ -0,0 +1,19 @@
+package com.microservices.fileservice.util;
+
+import java.util.concurrent.ThreadFactory;
+
+public class ThreadFactories {
+
+    /**
+     * Threads for the service's own background pools, named {@code <name>-0}, {@code <name>-1}, ...
+     * With {@code spring.threads.virtual.enabled} they are virtual, like the request threads, so
+     * pools that block on MinIO, Redis or the database do not pin platform threads; the pool size
+     * still bounds how many run at once.
+     */
+    public static ThreadFactory named(String name, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(name + "-", 0).factory();
+        }
+        return Thread.ofPlatform().name(name + "-", 0).daemon(true).factory();
+    }
+}
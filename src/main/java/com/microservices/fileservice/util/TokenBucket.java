@@ -0,0 +1,59 @@
+package com.microservices.fileservice.util;
+
+public class TokenBucket {
+
+    private double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(long tokensPerSecond, long capacity) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized void setRate(long tokensPerSecond) {
+        refill();
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return tokensPerNano <= 0;
+    }
+
+    /**
+     * Takes the permits unconditionally, letting the bucket go into debt,
+     * and returns how many nanoseconds the caller has to wait for the debt to be repaid.
+     */
+    public synchronized long reserve(long permits) {
+        if (tokensPerNano <= 0) {
+            return 0;
+        }
+        refill();
+        tokens -= permits;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / tokensPerNano);
+    }
+
+    public synchronized boolean tryAcquire(long permits) {
+        if (tokensPerNano <= 0) {
+            return true;
+        }
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
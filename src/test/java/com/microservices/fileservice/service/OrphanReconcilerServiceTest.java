@@ -0,0 +1,61 @@
+package com.microservices.fileservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrphanReconcilerServiceTest {
+
+    // Postgres COLLATE "C" compares the UTF-8 bytes, as does MinIO's listing order
+    private static int byteOrder(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void upperCaseSortsBeforeLowerCase() {
+        assertTrue(OrphanReconcilerService.compareKeys("B_file", "a_file") < 0);
+        assertTrue(OrphanReconcilerService.compareKeys("abc", "aBc") > 0);
+    }
+
+    @Test
+    void nonAsciiSortsAfterAscii() {
+        assertTrue(OrphanReconcilerService.compareKeys("zebra", "\u00e9t\u00e9") < 0);
+        assertTrue(OrphanReconcilerService.compareKeys("\u0444\u0430\u0439\u043b", "\u00e9") > 0);
+    }
+
+    @Test
+    void supplementaryCharactersSortByCodePoint() {
+        // UTF-16 order puts the surrogate pair of U+1F600 before U+FFFD; byte order does not
+        String emoji = "clip_\ud83d\ude00.mp4";
+        String replacement = "clip_\ufffd.mp4";
+
+        assertTrue(emoji.compareTo(replacement) < 0);
+        assertTrue(OrphanReconcilerService.compareKeys(emoji, replacement) > 0);
+    }
+
+    @Test
+    void prefixSortsFirst() {
+        assertTrue(OrphanReconcilerService.compareKeys("3f-abc", "3f-abcd") < 0);
+        assertEquals(0, OrphanReconcilerService.compareKeys("3f-abc", "3f-abc"));
+    }
+
+    @Test
+    void matchesUtf8ByteOrder() {
+        List<String> keys = List.of(
+                "", "A", "Z", "_", "a", "z", "~", "\u007f", "\u0080", "\u00c9", "\u00e9", "\u00ff",
+                "\u0100", "\u0444", "\u4e2d\u6587", "\ud7ff", "\ue000", "\ufffd", "\ud83d\ude00",
+                "\ud83e\udd80", "a\ud83d\ude00", "a\ufffd", "Video.mp4", "video.MP4", "video.mp4");
+
+        for (String a : keys) {
+            for (String b : keys) {
+                assertEquals(Integer.signum(byteOrder(a, b)),
+                        Integer.signum(OrphanReconcilerService.compareKeys(a, b)), a + " vs " + b);
+            }
+        }
+    }
+}
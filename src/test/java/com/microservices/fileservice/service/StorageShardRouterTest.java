@@ -0,0 +1,92 @@
+package com.microservices.fileservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageShardRouterTest {
+
+    private static final List<String> BUCKETS = List.of("files-00", "files-01", "files-02", "files-03");
+
+    private static String place(String objectName, List<String> buckets) {
+        return buckets.get(StorageShardRouter.rendezvous(objectName, buckets));
+    }
+
+    private static List<String> keys(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(UUID.nameUUIDFromBytes(("key-" + i).getBytes()) + "_video.mp4");
+        }
+        return keys;
+    }
+
+    @Test
+    void placementIgnoresTheSpreadPrefix() {
+        for (String key : keys(100)) {
+            assertEquals(place(key, BUCKETS), place("3f-" + key, BUCKETS));
+        }
+    }
+
+    @Test
+    void placementDoesNotDependOnBucketOrder() {
+        List<String> reversed = new ArrayList<>(BUCKETS);
+        Collections.reverse(reversed);
+
+        for (String key : keys(1_000)) {
+            assertEquals(place(key, BUCKETS), place(key, reversed));
+        }
+    }
+
+    @Test
+    void keysSpreadEvenly() {
+        Map<String, Integer> counts = new HashMap<>();
+        List<String> keys = keys(20_000);
+        for (String key : keys) {
+            counts.merge(place(key, BUCKETS), 1, Integer::sum);
+        }
+
+        for (String bucket : BUCKETS) {
+            double share = counts.getOrDefault(bucket, 0) / (double) keys.size();
+            assertTrue(share > 0.22 && share < 0.28, bucket + " got " + share);
+        }
+    }
+
+    @Test
+    void addingABucketOnlyMovesKeysToIt() {
+        List<String> grown = new ArrayList<>(BUCKETS);
+        grown.add("files-04");
+        List<String> keys = keys(20_000);
+
+        int moved = 0;
+        for (String key : keys) {
+            String before = place(key, BUCKETS);
+            String after = place(key, grown);
+            if (!before.equals(after)) {
+                assertEquals("files-04", after);
+                moved++;
+            }
+        }
+        double share = moved / (double) keys.size();
+        assertTrue(share > 0.17 && share < 0.23, "moved " + share);
+    }
+
+    @Test
+    void removingABucketOnlyMovesItsKeys() {
+        List<String> shrunk = BUCKETS.subList(0, 3);
+
+        for (String key : keys(5_000)) {
+            String before = place(key, BUCKETS);
+            if (!before.equals("files-03")) {
+                assertEquals(before, place(key, shrunk));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.microservices.fileservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangeTest {
+
+    @Test
+    void parsesClosedRange() {
+        ByteRange range = ByteRange.parse("bytes=100-199", 1_000);
+
+        assertEquals(100, range.start());
+        assertEquals(199, range.end());
+        assertEquals(100, range.length());
+        assertEquals("bytes 100-199/1000", range.contentRange());
+    }
+
+    @Test
+    void openRangeRunsToTheLastByte() {
+        ByteRange range = ByteRange.parse("bytes=900-", 1_000);
+
+        assertEquals(900, range.start());
+        assertEquals(999, range.end());
+        assertTrue(range.isSatisfiable());
+    }
+
+    @Test
+    void suffixRangeServesTheLastBytes() {
+        ByteRange range = ByteRange.parse("bytes=-100", 1_000);
+
+        assertEquals(900, range.start());
+        assertEquals(999, range.end());
+        assertTrue(range.isSatisfiable());
+    }
+
+    @Test
+    void suffixLongerThanTheFileServesAllOfIt() {
+        ByteRange range = ByteRange.parse("bytes=-5000", 1_000);
+
+        assertEquals(0, range.start());
+        assertEquals(999, range.end());
+    }
+
+    @Test
+    void zeroLengthSuffixIsUnsatisfiable() {
+        assertFalse(ByteRange.parse("bytes=-0", 1_000).isSatisfiable());
+    }
+
+    @Test
+    void endPastTheFileIsClamped() {
+        ByteRange range = ByteRange.parse("bytes=500-5000", 1_000);
+
+        assertEquals(999, range.end());
+        assertTrue(range.isSatisfiable());
+    }
+
+    @Test
+    void startPastTheFileIsUnsatisfiable() {
+        ByteRange range = ByteRange.parse("bytes=1000-", 1_000);
+
+        assertFalse(range.isSatisfiable());
+        assertEquals("bytes */1000", range.unsatisfiedContentRange());
+    }
+
+    @Test
+    void anyRangeOfAnEmptyFileIsUnsatisfiable() {
+        assertFalse(ByteRange.parse("bytes=0-", 0).isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=-10", 0).isSatisfiable());
+    }
+
+    @Test
+    void ignoresMissingOrForeignUnits() {
+        assertNull(ByteRange.parse(null, 1_000));
+        assertNull(ByteRange.parse("items=0-10", 1_000));
+    }
+
+    @Test
+    void ignoresMultipleRanges() {
+        assertNull(ByteRange.parse("bytes=0-10,20-30", 1_000));
+    }
+
+    @Test
+    void ignoresMalformedRanges() {
+        assertNull(ByteRange.parse("bytes=-", 1_000));
+        assertNull(ByteRange.parse("bytes=abc-def", 1_000));
+        assertNull(ByteRange.parse("bytes=20-10", 1_000));
+        assertNull(ByteRange.parse("bytes=99999999999999999999-", 1_000));
+    }
+
+    @Test
+    void unitIsCaseInsensitive() {
+        ByteRange range = ByteRange.parse("Bytes=0-9", 1_000);
+
+        assertEquals(10, range.length());
+    }
+
+    @Test
+    void ifRangeWithTheCurrentETagKeepsTheRange() {
+        ByteRange range = ByteRange.parse("bytes=100-199", "\"abc\"", "\"abc\"", 1_000);
+
+        assertEquals(100, range.start());
+        assertEquals(199, range.end());
+    }
+
+    @Test
+    void ifRangeWithAnOldETagServesTheWholeObject() {
+        assertNull(ByteRange.parse("bytes=100-199", "\"old\"", "\"abc\"", 1_000));
+    }
+
+    @Test
+    void ifRangeWithADateOrWeakETagNeverMatches() {
+        assertNull(ByteRange.parse("bytes=100-199", "Wed, 21 Oct 2015 07:28:00 GMT", "\"abc\"", 1_000));
+        assertNull(ByteRange.parse("bytes=100-199", "W/\"abc\"", "\"abc\"", 1_000));
+    }
+}
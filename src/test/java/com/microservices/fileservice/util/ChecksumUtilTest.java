@@ -0,0 +1,65 @@
+package com.microservices.fileservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Checksum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChecksumUtilTest {
+
+    private static String checksumOf(byte[] bytes) {
+        Checksum checksum = ChecksumUtil.newChecksum();
+        checksum.update(bytes, 0, bytes.length);
+        return ChecksumUtil.toHex(checksum);
+    }
+
+    @Test
+    void matchesTheCrc32cCheckValue() {
+        assertEquals("e3069283", checksumOf("123456789".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void emptyInputIsAllZeros() {
+        assertEquals("00000000", checksumOf(new byte[0]));
+    }
+
+    @Test
+    void hexIsZeroPaddedLowerCase() {
+        Checksum small = new Checksum() {
+            @Override
+            public void update(int b) {
+            }
+
+            @Override
+            public void update(byte[] b, int off, int len) {
+            }
+
+            @Override
+            public long getValue() {
+                return 0xABCL;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+
+        assertEquals("00000abc", ChecksumUtil.toHex(small));
+    }
+
+    @Test
+    void chunkedUpdatesMatchOneUpdate() {
+        byte[] bytes = new byte[200_000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        Checksum chunked = ChecksumUtil.newChecksum();
+        for (int offset = 0; offset < bytes.length; offset += 65_536) {
+            chunked.update(bytes, offset, Math.min(65_536, bytes.length - offset));
+        }
+
+        assertEquals(checksumOf(bytes), ChecksumUtil.toHex(chunked));
+    }
+}
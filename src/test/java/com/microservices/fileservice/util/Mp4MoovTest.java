@@ -0,0 +1,193 @@
+package com.microservices.fileservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Mp4MoovTest {
+
+    private static final byte[] FTYP = box("ftyp", "isom".getBytes(StandardCharsets.ISO_8859_1), new byte[4]);
+    private static final byte[] MEDIA = mediaBytes(100);
+    private static final byte[] MDAT = box("mdat", MEDIA);
+
+    private static byte[] box(String type, byte[]... contents) {
+        int size = 8;
+        for (byte[] content : contents) {
+            size += content.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size);
+        buffer.put(type.getBytes(StandardCharsets.ISO_8859_1));
+        for (byte[] content : contents) {
+            buffer.put(content);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] stco(long... offsets) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + offsets.length * 4);
+        buffer.putInt(0);
+        buffer.putInt(offsets.length);
+        for (long offset : offsets) {
+            buffer.putInt((int) offset);
+        }
+        return box("stco", buffer.array());
+    }
+
+    private static byte[] co64(long... offsets) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + offsets.length * 8);
+        buffer.putInt(0);
+        buffer.putInt(offsets.length);
+        for (long offset : offsets) {
+            buffer.putLong(offset);
+        }
+        return box("co64", buffer.array());
+    }
+
+    private static byte[] moov(byte[] chunkOffsets) {
+        byte[] mvhd = box("mvhd", new byte[20]);
+        byte[] stsz = box("stsz", new byte[12]);
+        return box("moov", mvhd, box("trak", box("mdia", box("minf", box("stbl", stsz, chunkOffsets)))));
+    }
+
+    private static byte[] mediaBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 7 + 3);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static long[] chunkOffsets(byte[] moov) {
+        String text = new String(moov, StandardCharsets.ISO_8859_1);
+        int stco = text.indexOf("stco");
+        int at = stco >= 0 ? stco : text.indexOf("co64");
+        ByteBuffer buffer = ByteBuffer.wrap(moov, at + 8, moov.length - at - 8);
+        int count = buffer.getInt();
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = stco >= 0 ? Integer.toUnsignedLong(buffer.getInt()) : buffer.getLong();
+        }
+        return offsets;
+    }
+
+    // Reads a header the way the fast-start scan does, 16 bytes or what is left of the file
+    private static Mp4Moov.BoxHeader header(byte[] file, long offset) throws IOException {
+        int from = (int) offset;
+        return Mp4Moov.BoxHeader.parse(Arrays.copyOfRange(file, from, Math.min(file.length, from + 16)),
+                offset, file.length);
+    }
+
+    @Test
+    void parsesTopLevelHeaders() throws IOException {
+        byte[] file = concat(FTYP, MDAT, moov(stco(FTYP.length + 8)));
+
+        Mp4Moov.BoxHeader ftyp = header(file, 0);
+        Mp4Moov.BoxHeader mdat = header(file, ftyp.end());
+        Mp4Moov.BoxHeader moov = header(file, mdat.end());
+
+        assertEquals("ftyp", ftyp.type());
+        assertEquals(FTYP.length, ftyp.size());
+        assertEquals("mdat", mdat.type());
+        assertEquals(FTYP.length, mdat.offset());
+        assertEquals(8, mdat.headerSize());
+        assertEquals(Mp4Moov.MOOV, moov.type());
+        assertEquals(file.length, moov.end());
+    }
+
+    @Test
+    void parsesLargeAndOpenEndedSizes() throws IOException {
+        ByteBuffer large = ByteBuffer.allocate(16);
+        large.putInt(1).put("mdat".getBytes(StandardCharsets.ISO_8859_1)).putLong(5_000_000_000L);
+        Mp4Moov.BoxHeader largeBox = Mp4Moov.BoxHeader.parse(large.array(), 100, 6_000_000_000L);
+
+        ByteBuffer open = ByteBuffer.allocate(8);
+        open.putInt(0).put("mdat".getBytes(StandardCharsets.ISO_8859_1));
+        Mp4Moov.BoxHeader openBox = Mp4Moov.BoxHeader.parse(open.array(), 100, 1_000);
+
+        assertEquals(5_000_000_000L, largeBox.size());
+        assertEquals(16, largeBox.headerSize());
+        assertEquals(900, openBox.size());
+    }
+
+    @Test
+    void rejectsBrokenHeaders() {
+        assertThrows(IOException.class, () -> Mp4Moov.BoxHeader.parse(new byte[4], 0, 100));
+        // Claims more bytes than the file has
+        assertThrows(IOException.class, () -> Mp4Moov.BoxHeader.parse(box("mdat", new byte[50]), 0, 20));
+        assertThrows(IOException.class, () -> Mp4Moov.parse(box("free", new byte[8])));
+    }
+
+    @Test
+    void relocatedMoovPointsAtTheSameMedia() throws IOException {
+        long firstChunk = FTYP.length + 8;
+        long secondChunk = FTYP.length + 8 + 60;
+        byte[] oldMoov = moov(stco(firstChunk, secondChunk));
+        long moovOffset = FTYP.length + MDAT.length;
+
+        byte[] newMoov = Mp4Moov.parse(oldMoov).relocate(FTYP.length, moovOffset, oldMoov.length);
+        byte[] fastStart = concat(FTYP, newMoov, MDAT);
+
+        assertEquals(oldMoov.length, newMoov.length);
+        long[] offsets = chunkOffsets(newMoov);
+        assertEquals(firstChunk + newMoov.length, offsets[0]);
+        assertEquals(secondChunk + newMoov.length, offsets[1]);
+        assertEquals(MEDIA[0], fastStart[(int) offsets[0]]);
+        assertEquals(MEDIA[60], fastStart[(int) offsets[1]]);
+    }
+
+    @Test
+    void keepsBoxesItDoesNotRewrite() throws IOException {
+        byte[] oldMoov = moov(stco(FTYP.length + 8));
+
+        byte[] newMoov = Mp4Moov.parse(oldMoov).relocate(FTYP.length, FTYP.length + MDAT.length, oldMoov.length);
+
+        String text = new String(newMoov, StandardCharsets.ISO_8859_1);
+        int mvhd = text.indexOf("mvhd");
+        assertArrayEquals(Arrays.copyOfRange(oldMoov, mvhd - 4, mvhd + 24), Arrays.copyOfRange(newMoov, mvhd - 4, mvhd + 24));
+    }
+
+    @Test
+    void offsetsAfterTheOldMoovShiftByTheSizeDifference() throws IOException {
+        long moovOffset = FTYP.length + MDAT.length;
+        byte[] oldMoov = moov(co64(FTYP.length + 8, moovOffset + 500));
+
+        byte[] newMoov = Mp4Moov.parse(oldMoov).relocate(FTYP.length, moovOffset, oldMoov.length);
+
+        long[] offsets = chunkOffsets(newMoov);
+        assertEquals(FTYP.length + 8 + newMoov.length, offsets[0]);
+        assertEquals(moovOffset + 500, offsets[1]);
+    }
+
+    @Test
+    void widensToCo64WhenAnOffsetNoLongerFits() throws IOException {
+        long nearLimit = 0xFFFFFFF0L;
+        byte[] oldMoov = moov(stco(FTYP.length + 8, nearLimit));
+        long moovOffset = 0x1_0000_0100L;
+
+        byte[] newMoov = Mp4Moov.parse(oldMoov).relocate(FTYP.length, moovOffset, oldMoov.length);
+
+        assertEquals(-1, new String(newMoov, StandardCharsets.ISO_8859_1).indexOf("stco"));
+        assertEquals(oldMoov.length + 2 * 4, newMoov.length);
+        long[] offsets = chunkOffsets(newMoov);
+        assertEquals(FTYP.length + 8 + newMoov.length, offsets[0]);
+        assertEquals(nearLimit + newMoov.length, offsets[1]);
+        assertEquals(newMoov.length, ByteBuffer.wrap(newMoov).getInt());
+    }
+}
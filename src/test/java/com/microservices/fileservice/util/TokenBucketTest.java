@@ -0,0 +1,70 @@
+package com.microservices.fileservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void reserveWithinCapacityDoesNotWait() {
+        TokenBucket bucket = new TokenBucket(1_000, 1_000);
+
+        assertEquals(0, bucket.reserve(1_000));
+    }
+
+    @Test
+    void reserveBeyondCapacityWaitsForTheDebt() {
+        TokenBucket bucket = new TokenBucket(1_000, 1_000);
+        bucket.reserve(1_000);
+
+        long wait = bucket.reserve(500);
+
+        // Half a second of debt, minus whatever refilled since the first reservation
+        assertTrue(wait > SECOND / 2 - SECOND / 10 && wait <= SECOND / 2, "wait was " + wait);
+    }
+
+    @Test
+    void debtAccumulatesAcrossReservations() {
+        TokenBucket bucket = new TokenBucket(1_000, 1_000);
+        bucket.reserve(1_000);
+        bucket.reserve(1_000);
+
+        long wait = bucket.reserve(1_000);
+
+        assertTrue(wait > 2 * SECOND - SECOND / 10 && wait <= 2 * SECOND, "wait was " + wait);
+    }
+
+    @Test
+    void tryAcquireDoesNotGoIntoDebt() {
+        TokenBucket bucket = new TokenBucket(1_000, 1_000);
+
+        assertTrue(bucket.tryAcquire(600));
+        assertFalse(bucket.tryAcquire(600));
+        assertTrue(bucket.tryAcquire(300));
+    }
+
+    @Test
+    void zeroRateIsUnlimited() {
+        TokenBucket bucket = new TokenBucket(0, 1);
+
+        assertTrue(bucket.isUnlimited());
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+        assertTrue(bucket.tryAcquire(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    void setRateChangesTheWaitForNewDebt() {
+        TokenBucket bucket = new TokenBucket(1_000, 1_000);
+        bucket.reserve(1_000);
+        bucket.setRate(2_000);
+
+        long wait = bucket.reserve(1_000);
+
+        assertTrue(wait > SECOND / 2 - SECOND / 10 && wait <= SECOND / 2, "wait was " + wait);
+    }
+}